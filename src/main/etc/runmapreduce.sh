@@ -1,9 +1,24 @@
 
+# run with DEDUP=yes when the input comes from overlapping pulls of the feed, the dedup job reads the whole input twice
+input=sfcrime.csv
+
+rm -Rf dedup
 rm -Rf bycategory
 rm -Rf bydistrict
 rm -Rf star
+rm -Rf heatmap
+
+if [ "$DEDUP" = "yes" ]; then
+	bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.hadoop.mapreduce.SanFranciscoCrimeDedup $input dedup
+	input=dedup
+fi
+
+bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.hadoop.mapreduce.SanFranciscoCrime $input bycategory bydistrict
 
-bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.hadoop.mapreduce.SanFranciscoCrime sfcrime.csv bycategory bydistrict
+bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.hadoop.mapreduce.SanFranciscoCrimePrepOlap bycategory bydistrict $input star
 
-bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.hadoop.mapreduce.SanFranciscoCrimePrepOlap bycategory/part-00000 bydistrict/part-00000 sfcrime.csv star
+bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.hadoop.mapreduce.SanFranciscoCrimeHeatmap $input heatmap
 
+# nightly alternative to the jobs above for a directory of monthly files that do not overlap, only the files that
+# are new or changed since the last run are read, the partials of the rest are kept in the sfcrime-state directory
+# bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.hadoop.mapreduce.SanFranciscoCrimeIncremental sfcrime sfcrime-state bycategory bydistrict star
@@ -1,9 +1,12 @@
 create table timeperiod (
-       time_id int not null primary key auto_increment,
+       time_id int not null primary key,
        year int not null,
+       quarter int not null,
        month int not null,
        week int not null,
-       day int not null
+       week_of_year int not null,
+       day int not null,
+       day_of_week int not null
 );
 create table category (
        category_id int not null primary key auto_increment,
@@ -11,7 +14,10 @@ create table category (
 );
 create table district (
        district_id int not null primary key auto_increment,
-       name varchar(50) not null
+       name varchar(50) not null,
+       station varchar(50),
+       population int,
+       area decimal(9,3)
 );
 create table fact (
        crimes int not null,
@@ -19,3 +25,11 @@ create table fact (
        category_id int not null,
        time_id int not null
 );
+create table spatialfact (
+       crimes int not null,
+       time_id int not null,
+       cell_row int not null,
+       cell_col int not null,
+       latitude decimal(9,6) not null,
+       longitude decimal(9,6) not null
+);
@@ -1,10 +1,12 @@
-create sequence time_id_seq;
-
 create table timeperiod (
-       time_id int not null primary key default nextval('time_id_seq'),
+       time_id int not null primary key,
        year int not null,
+       quarter int not null,
        month int not null,
-       day int not null
+       week int not null,
+       week_of_year int not null,
+       day int not null,
+       day_of_week int not null
 );
 
 create sequence category_id_seq;
@@ -18,7 +20,10 @@ create sequence district_id_seq;
 
 create table district (
        district_id int not null primary key default nextval('district_id_seq'),
-       name varchar(50) not null
+       name varchar(50) not null,
+       station varchar(50),
+       population int,
+       area decimal(9,3)
 );
 create table fact (
        crimes int not null,
@@ -26,3 +31,11 @@ create table fact (
        category_id int not null,
        time_id int not null
 );
+create table spatialfact (
+       crimes int not null,
+       time_id int not null,
+       cell_row int not null,
+       cell_col int not null,
+       latitude decimal(9,6) not null,
+       longitude decimal(9,6) not null
+);
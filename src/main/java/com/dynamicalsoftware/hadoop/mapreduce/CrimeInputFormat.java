@@ -0,0 +1,240 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * splittable input format for the sf crime csv files that understands quoted fields spanning lines
+ * and hands the mappers pre-parsed records holding only the projected columns
+ *
+ * In preview mode the input is cut into small byte ranges and only a seeded random fraction of them is read,
+ * so a preview costs about that fraction of a full run. The key of each record is then the id of its range
+ * instead of its offset, which lets a reducer estimate totals, and their variance, from the ranges that were read.
+ * @author glenn
+ */
+public class CrimeInputFormat extends FileInputFormat<LongWritable, CrimeRecord> implements JobConfigurable {
+
+	private static Logger log = Logger.getLogger(CrimeInputFormat.class.getCanonicalName());
+
+	/**
+	 * configuration property that holds the comma separated zero based indexes of the columns to project
+	 */
+	public static final String COLUMNS_PROPERTY = "sfcrime.csv.columns";
+
+	/**
+	 * configuration property that holds the longest a record may be before it is considered malformed
+	 */
+	public static final String MAX_RECORD_PROPERTY = "sfcrime.csv.maxrecord";
+
+	/**
+	 * configuration property that, when less than one, turns on preview mode where only that fraction of the input is read
+	 */
+	public static final String PREVIEW_FRACTION_PROPERTY = "sfcrime.preview.fraction";
+
+	/**
+	 * configuration property that holds the seed of the preview sample so that a preview can be reproduced
+	 */
+	public static final String PREVIEW_SEED_PROPERTY = "sfcrime.preview.seed";
+
+	/**
+	 * configuration property that holds the size in bytes of the ranges that a preview samples
+	 */
+	public static final String PREVIEW_RANGE_SIZE_PROPERTY = "sfcrime.preview.rangesize";
+
+	/**
+	 * configuration property, set when the splits of a preview are computed, that holds how many ranges were sampled
+	 */
+	public static final String PREVIEW_RANGES_PROPERTY = "sfcrime.preview.ranges";
+
+	/**
+	 * configuration property, set when the splits of a preview are computed, that holds how many ranges the input has
+	 */
+	public static final String PREVIEW_TOTAL_RANGES_PROPERTY = "sfcrime.preview.totalranges";
+
+	/**
+	 * configuration property, set when the splits of a preview are computed, that holds the bytes of input per byte read
+	 */
+	public static final String PREVIEW_SCALE_PROPERTY = "sfcrime.preview.scale";
+
+	/**
+	 * small ranges keep a preview of data that is in time order from seeing whole weeks or none of them
+	 */
+	public static final long DEFAULT_PREVIEW_RANGE_SIZE = 16l * 1024l;
+
+	/**
+	 * the columns used by the jobs in this project, incident number, category, day of week, date, time, district, X and Y
+	 */
+	public static final String DEFAULT_COLUMNS = "0,1,3,4,5,6,9,10";
+
+	/**
+	 * value of the columns property that projects every column, for jobs that write the records back out
+	 */
+	public static final String ALL_COLUMNS = "*";
+
+	private CompressionCodecFactory compressionCodecs = null;
+
+	public void configure(JobConf conf) {
+		compressionCodecs = new CompressionCodecFactory(conf);
+	}
+
+	/**
+	 * compressed files can only be read from the beginning
+	 */
+	@Override
+	protected boolean isSplitable(FileSystem fs, Path file) {
+		return compressionCodecs.getCodec(file) == null;
+	}
+
+	@Override
+	public RecordReader<LongWritable, CrimeRecord> getRecordReader(InputSplit split, JobConf job, Reporter reporter) throws IOException {
+		reporter.setStatus(split.toString());
+		if (split instanceof PreviewSplit) {
+			return new PreviewRecordReader(job, (PreviewSplit)split, reporter);
+		}
+		return new CrimeRecordReader(job, (FileSplit)split, reporter);
+	}
+
+	/**
+	 * the usual splits, or in preview mode splits of randomly sampled ranges
+	 *
+	 * this runs on the client before the job configuration is submitted so the size of the sample that it
+	 * records in the configuration reaches the tasks
+	 */
+	@Override
+	public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+		if (getPreviewFraction(job) >= 1.0f) {
+			return super.getSplits(job, numSplits);
+		}
+		long rangeSize = Math.max(1l, job.getLong(PREVIEW_RANGE_SIZE_PROPERTY, DEFAULT_PREVIEW_RANGE_SIZE));
+		FileStatus[] files = listStatus(job);
+		// every range of the input as the index of its file, its start and its length
+		List<long[]> ranges = new ArrayList<long[]>();
+		long totalBytes = 0l;
+		for (int f = 0; f < files.length; f++) {
+			long length = files[f].getLen();
+			totalBytes += length;
+			Path path = files[f].getPath();
+			if (length > 0l && isSplitable(path.getFileSystem(job), path)) {
+				for (long start = 0l; start < length; start += rangeSize) {
+					ranges.add(new long[]{f, start, Math.min(rangeSize, length - start)});
+				}
+			} else if (length > 0l) {
+				ranges.add(new long[]{f, 0l, length});
+			}
+		}
+		List<InputSplit> retVal = new ArrayList<InputSplit>();
+		if (ranges.size() > 0) {
+			int sampled = Math.max(1, Math.round(ranges.size() * getPreviewFraction(job)));
+			Random random = new Random(job.getLong(PREVIEW_SEED_PROPERTY, 0l));
+			// a partial shuffle leaves a simple random sample of the ranges at the front
+			for (int i = 0; i < sampled; i++) {
+				Collections.swap(ranges, i, i + random.nextInt(ranges.size() - i));
+			}
+			List<long[]> sample = new ArrayList<long[]>(ranges.subList(0, sampled));
+			Collections.sort(sample, new Comparator<long[]>() {
+				public int compare(long[] a, long[] b) {
+					return a[0] != b[0] ? (a[0] < b[0] ? -1 : 1) : (a[1] < b[1] ? -1 : (a[1] == b[1] ? 0 : 1));
+				}
+			});
+			long sampledBytes = 0l;
+			for (long[] range : sample) {
+				sampledBytes += range[2];
+			}
+			long target = Math.max(rangeSize, sampledBytes / Math.max(1, numSplits));
+			PreviewSplit split = null;
+			int file = -1;
+			for (int id = 0; id < sample.size(); id++) {
+				long[] range = sample.get(id);
+				if (split == null || file != (int)range[0] || split.getLength() >= target) {
+					file = (int)range[0];
+					FileStatus status = files[file];
+					BlockLocation[] blocks = status.getPath().getFileSystem(job).getFileBlockLocations(status, range[1], range[2]);
+					split = new PreviewSplit(status.getPath(), blocks != null && blocks.length > 0 ? blocks[0].getHosts() : new String[0]);
+					retVal.add(split);
+				}
+				split.add(id, range[1], range[2]);
+			}
+			job.setInt(PREVIEW_RANGES_PROPERTY, sampled);
+			job.setInt(PREVIEW_TOTAL_RANGES_PROPERTY, ranges.size());
+			job.set(PREVIEW_SCALE_PROPERTY, Double.toString((double)totalBytes / sampledBytes));
+			log.info(MessageFormat.format("previewing {0,number,#} of {1,number,#} ranges, {2,number,#} of {3,number,#} bytes, in {4,number,#} splits", new Object[]{sampled, ranges.size(), sampledBytes, totalBytes, retVal.size()}));
+		}
+		return retVal.toArray(new InputSplit[retVal.size()]);
+	}
+
+	/**
+	 * @param job is the job to check
+	 * @return the fraction of the input that the job reads, one unless it is a preview
+	 */
+	public static float getPreviewFraction(Configuration job) {
+		float retVal = job.getFloat(PREVIEW_FRACTION_PROPERTY, 1.0f);
+		return retVal > 0.0f && retVal < 1.0f ? retVal : 1.0f;
+	}
+
+	/**
+	 * turn preview mode off for jobs that do not estimate their output from a sample, whose output would otherwise
+	 * silently cover only part of the input
+	 * @param conf holds any configuration specified on the command line
+	 * @param name names the job for the warning
+	 */
+	public static void clearPreview(Configuration conf, String name) {
+		if (getPreviewFraction(conf) < 1.0f) {
+			log.warning(MessageFormat.format("preview mode does not apply to {0}, reading every record", new Object[]{name}));
+		}
+		conf.setFloat(PREVIEW_FRACTION_PROPERTY, 1.0f);
+	}
+
+	/**
+	 * limit the columns that the mappers of a job will see
+	 * @param job is the job to configure
+	 * @param columns are the zero based indexes of the columns to project
+	 */
+	public static void setColumns(JobConf job, int... columns) {
+		StringBuffer sv = new StringBuffer();
+		for (int column : columns) {
+			if (sv.length() > 0) {
+				sv.append(",");
+			}
+			sv.append(column);
+		}
+		job.set(COLUMNS_PROPERTY, sv.toString());
+	}
+
+}
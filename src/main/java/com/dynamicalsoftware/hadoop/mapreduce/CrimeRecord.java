@@ -0,0 +1,145 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * one pre-parsed row of sf crime data holding only the projected columns
+ *
+ * the record reader reuses the same instance for every row so mappers must copy anything they keep
+ * @author glenn
+ */
+public class CrimeRecord implements Writable {
+
+	/**
+	 * column values by zero based index, null for columns that were not projected
+	 */
+	private String[] columns = new String[0];
+
+	/**
+	 * how many columns the row had in the raw data
+	 */
+	private int size = 0;
+
+	/**
+	 * @param index is the zero based column index
+	 * @return the value of that column or null if it was not projected or not present
+	 */
+	public String get(int index) {
+		return index < columns.length ? columns[index] : null;
+	}
+
+	/**
+	 * @return how many columns the row had in the raw data
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * forget the previous row
+	 * @param width is the number of columns that could be projected
+	 */
+	void clear(int width) {
+		if (columns.length < width) {
+			columns = new String[width];
+		} else {
+			for (int i = 0; i < columns.length; i++) {
+				columns[i] = null;
+			}
+		}
+		size = 0;
+	}
+
+	void set(int index, String value) {
+		if (index >= columns.length) {
+			String[] wider = new String[index + 1];
+			System.arraycopy(columns, 0, wider, 0, columns.length);
+			columns = wider;
+		}
+		columns[index] = value;
+	}
+
+	void setSize(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * @return a copy of this record that will not be overwritten by the record reader
+	 */
+	public CrimeRecord copy() {
+		CrimeRecord retVal = new CrimeRecord();
+		retVal.columns = columns.clone();
+		retVal.size = size;
+		return retVal;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, size);
+		WritableUtils.writeVInt(out, columns.length);
+		for (String column : columns) {
+			out.writeBoolean(column != null);
+			if (column != null) {
+				Text.writeString(out, column);
+			}
+		}
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		int s = WritableUtils.readVInt(in);
+		int width = WritableUtils.readVInt(in);
+		if (columns.length != width) {
+			columns = new String[width];
+		}
+		size = s;
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = in.readBoolean() ? Text.readString(in) : null;
+		}
+	}
+
+	/**
+	 * @return the record as a line of csv, columns that were not projected are left empty
+	 */
+	@Override
+	public String toString() {
+		StringBuffer retVal = new StringBuffer();
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				retVal.append(",");
+			}
+			String column = get(i);
+			if (column != null) {
+				if (column.indexOf(',') >= 0 || column.indexOf('"') >= 0 || column.indexOf('\n') >= 0) {
+					retVal.append("\"");
+					retVal.append(column.replace("\"", "\"\""));
+					retVal.append("\"");
+				} else {
+					retVal.append(column);
+				}
+			}
+		}
+		return retVal.toString();
+	}
+
+}
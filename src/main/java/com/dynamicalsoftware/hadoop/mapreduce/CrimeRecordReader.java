@@ -0,0 +1,438 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * reads the sf crime records of one split of a csv file
+ *
+ * a record belongs to the split in which its first byte falls. The reader of a split that does not start
+ * the file cannot know whether it starts inside a quoted field, so it tries each following line in turn and
+ * takes the first one that parses into a complete record with a numeric incident number and a date and that
+ * is followed by another such record, or by the end of the file. A line of text inside a quoted field can look
+ * like a record, but then the closing quote of the field is taken for an opening one and throws the record
+ * after it out of line.
+ * The reader of the previous split always starts on a true record boundary, so it reads any record that
+ * straddles the split end to completion. The first record of a file is skipped when it is the header.
+ * @author glenn
+ */
+public class CrimeRecordReader implements RecordReader<LongWritable, CrimeRecord> {
+
+	private static Logger log = Logger.getLogger(CrimeRecordReader.class.getCanonicalName());
+
+	/**
+	 * what the date column of a valid record looks like
+	 */
+	private static final Pattern DATE = Pattern.compile("\\d{1,2}/\\d{1,2}/\\d{4}.*");
+
+	/**
+	 * the fewest columns that a valid record may have
+	 */
+	private static final int MIN_COLUMNS = MapReduceJobBase.DISTRICT_COLUMN_INDEX + 1;
+
+	/**
+	 * how many bytes to read from the file at a time
+	 */
+	private static final int BUFFER_SIZE = 65536;
+
+	/**
+	 * how many bytes to read at a time past the end of the split, where only the rest of the last record is needed
+	 */
+	private static final int TAIL_SIZE = 1024;
+
+	private long start;
+
+	private long end;
+
+	/**
+	 * offset in the (uncompressed) file of the next byte to be read
+	 */
+	private long pos = 0l;
+
+	private final Path file;
+
+	private final FileSystem fs;
+
+	private final CompressionCodec codec;
+
+	private InputStream in = null;
+
+	private FSDataInputStream fileIn = null;
+
+	/**
+	 * the stream of the file when the caller opened it and will close it, otherwise null
+	 */
+	private final FSDataInputStream borrowed;
+
+	private final byte[] buffer;
+
+	private int bufferLength = 0;
+
+	private int bufferPos = 0;
+
+	/**
+	 * bytes of the field currently being parsed
+	 */
+	private byte[] field = new byte[256];
+
+	private int fieldLength = 0;
+
+	/**
+	 * flags which columns are to be decoded into the record
+	 */
+	private final boolean[] projected;
+
+	/**
+	 * true when every column is to be decoded
+	 */
+	private final boolean all;
+
+	private final int maxRecord;
+
+	/**
+	 * incident number and date of the last record read, always decoded in order to validate the record
+	 */
+	private String incident = null;
+
+	private String date = null;
+
+	private boolean overflow = false;
+
+	/**
+	 * new lines inside quotes in the last record read, lines that are lost when the record is malformed
+	 */
+	private int lines = 0;
+
+	private final Reporter reporter;
+
+	public CrimeRecordReader(JobConf job, FileSplit split, Reporter reporter) throws IOException {
+		this(job, split.getPath(), reporter, null, BUFFER_SIZE);
+		setRange(split.getStart(), split.getLength());
+	}
+
+	/**
+	 * a reader for several ranges of one file, read one after another by calling setRange before each
+	 * @param job holds the configuration
+	 * @param file is the file to read
+	 * @param reporter receives the counters
+	 * @param stream is the open stream of the file, which is left open, or null to have the reader open the file
+	 * @param bufferSize is how many bytes to read at a time, no more than a range is worth
+	 * @throws IOException
+	 */
+	CrimeRecordReader(JobConf job, Path file, Reporter reporter, FSDataInputStream stream, int bufferSize) throws IOException {
+		this.reporter = reporter;
+		this.file = file;
+		borrowed = stream;
+		fileIn = stream;
+		in = stream;
+		buffer = new byte[Math.max(1, Math.min(BUFFER_SIZE, bufferSize))];
+		fs = file.getFileSystem(job);
+		codec = new CompressionCodecFactory(job).getCodec(file);
+		maxRecord = job.getInt(CrimeInputFormat.MAX_RECORD_PROPERTY, 65536);
+		String columns = job.get(CrimeInputFormat.COLUMNS_PROPERTY, CrimeInputFormat.DEFAULT_COLUMNS);
+		all = CrimeInputFormat.ALL_COLUMNS.equals(columns.trim());
+		String[] pc = all ? new String[0] : columns.split(",");
+		int width = 0;
+		for (String c : pc) {
+			width = Math.max(width, Integer.parseInt(c.trim()) + 1);
+		}
+		projected = new boolean[width];
+		for (String c : pc) {
+			projected[Integer.parseInt(c.trim())] = true;
+		}
+	}
+
+	/**
+	 * position the reader on the first record that starts in a range of the file
+	 * @param start is the offset of the first byte of the range
+	 * @param length is the number of bytes in the range
+	 * @throws IOException
+	 */
+	void setRange(long start, long length) throws IOException {
+		this.start = start;
+		end = start + length;
+		CrimeRecord scratch = createValue();
+		if (start == 0l) {
+			if (codec != null) {
+				end = Long.MAX_VALUE;
+			}
+			seek(0l);
+			// skip the header, which is the only place where the first column is not an incident number
+			if (!readRecord(scratch) || isValid(scratch)) {
+				seek(0l);
+			}
+		} else {
+			seek(start - 1l);
+			skipLine();
+			while (pos < end) {
+				long candidate = pos;
+				if (!readRecord(scratch)) {
+					break;
+				}
+				if (isValid(scratch) && (!readRecord(scratch) || isValid(scratch))) {
+					seek(candidate);
+					break;
+				}
+				seek(candidate);
+				skipLine();
+			}
+		}
+	}
+
+	/**
+	 * position the reader, compressed files can only be positioned at the beginning
+	 * @param p is the offset in the file
+	 * @throws IOException
+	 */
+	private void seek(long p) throws IOException {
+		long bufferStart = pos - bufferPos;
+		if (codec == null && fileIn != null && p >= bufferStart && p <= bufferStart + bufferLength) {
+			// still in the buffer, as when going back to a candidate record boundary
+			bufferPos = (int)(p - bufferStart);
+			pos = p;
+			return;
+		}
+		if (codec == null) {
+			if (fileIn == null) {
+				fileIn = fs.open(file);
+				in = fileIn;
+			}
+			fileIn.seek(p);
+		} else {
+			if (in != null && in != borrowed) {
+				in.close();
+			}
+			in = codec.createInputStream(fs.open(file));
+		}
+		pos = p;
+		bufferLength = 0;
+		bufferPos = 0;
+	}
+
+	/**
+	 * @return the next byte without consuming it or -1 at the end of the file
+	 * @throws IOException
+	 */
+	private int peek() throws IOException {
+		if (bufferPos >= bufferLength) {
+			// reading far past the end of the split is wasted, and matters when the splits are small preview ranges
+			int length = pos < end ? (int)Math.min(buffer.length, end - pos) : Math.min(buffer.length, TAIL_SIZE);
+			bufferLength = in.read(buffer, 0, length);
+			bufferPos = 0;
+			if (bufferLength <= 0) {
+				bufferLength = 0;
+				return -1;
+			}
+		}
+		return buffer[bufferPos] & 0xff;
+	}
+
+	/**
+	 * @return the next byte or -1 at the end of the file
+	 * @throws IOException
+	 */
+	private int read() throws IOException {
+		int retVal = peek();
+		if (retVal >= 0) {
+			bufferPos++;
+			pos++;
+		}
+		return retVal;
+	}
+
+	/**
+	 * consume everything up to and including the next new line, ignoring quotes
+	 * @throws IOException
+	 */
+	private void skipLine() throws IOException {
+		int b = read();
+		while (b >= 0 && b != '\n') {
+			b = read();
+		}
+	}
+
+	private void append(int b) {
+		if (fieldLength == field.length) {
+			byte[] bigger = new byte[field.length * 2];
+			System.arraycopy(field, 0, bigger, 0, fieldLength);
+			field = bigger;
+		}
+		field[fieldLength++] = (byte)b;
+	}
+
+	/**
+	 * decode the field just parsed if it is needed
+	 * @param record receives the value when the column is projected
+	 * @param column is the zero based index of the column
+	 * @throws IOException
+	 */
+	private void endField(CrimeRecord record, int column) throws IOException {
+		boolean wanted = all || (column < projected.length && projected[column]);
+		if (wanted || column == MapReduceJobBase.INCIDENT_COLUMN_INDEX || column == MapReduceJobBase.DATE_COLUMN_INDEX) {
+			String value = Text.decode(field, 0, fieldLength);
+			if (wanted) {
+				record.set(column, value);
+			}
+			if (column == MapReduceJobBase.INCIDENT_COLUMN_INDEX) {
+				incident = value;
+			} else if (column == MapReduceJobBase.DATE_COLUMN_INDEX) {
+				date = value;
+			}
+		}
+		fieldLength = 0;
+	}
+
+	/**
+	 * parse the csv record starting at the current position
+	 * @param record receives the projected columns
+	 * @return false if the end of the file has been reached
+	 * @throws IOException
+	 */
+	private boolean readRecord(CrimeRecord record) throws IOException {
+		record.clear(projected.length);
+		incident = null;
+		date = null;
+		overflow = false;
+		lines = 0;
+		fieldLength = 0;
+		long recordStart = pos;
+		int column = 0;
+		boolean quoted = false;
+		boolean any = false;
+		while (true) {
+			int b = read();
+			if (b < 0) {
+				if (!any) {
+					return false;
+				}
+				endField(record, column++);
+				break;
+			}
+			any = true;
+			if (pos - recordStart > maxRecord) {
+				// most likely an unbalanced quote, give up on this record
+				overflow = true;
+				break;
+			}
+			if (quoted) {
+				if (b == '"') {
+					if (peek() == '"') {
+						read();
+						append(b);
+					} else {
+						quoted = false;
+					}
+				} else {
+					if (b == '\n') {
+						lines++;
+					}
+					append(b);
+				}
+			} else if (b == '"') {
+				quoted = true;
+			} else if (b == ',') {
+				endField(record, column++);
+			} else if (b == '\n') {
+				endField(record, column++);
+				break;
+			} else if (b != '\r') {
+				append(b);
+			}
+		}
+		record.setSize(column);
+		return true;
+	}
+
+	/**
+	 * @param record is the record just read
+	 * @return true if the record has enough columns, a numeric incident number and a date
+	 */
+	private boolean isValid(CrimeRecord record) {
+		boolean retVal = !overflow && record.size() >= MIN_COLUMNS && incident != null && incident.length() > 0 && date != null && DATE.matcher(date).matches();
+		for (int i = 0; retVal && i < incident.length(); i++) {
+			retVal = Character.isDigit(incident.charAt(i));
+		}
+		return retVal;
+	}
+
+	public boolean next(LongWritable key, CrimeRecord value) throws IOException {
+		while (pos < end) {
+			long recordStart = pos;
+			if (!readRecord(value)) {
+				return false;
+			}
+			if (isValid(value)) {
+				key.set(recordStart);
+				return true;
+			}
+			log.warning(MessageFormat.format("Data at {0} in {1} did not parse into a record.", new Object[]{Long.toString(recordStart), file.toString()}));
+			reporter.incrCounter("CrimeInputFormat", "malformed records", 1l);
+			if (overflow) {
+				seek(recordStart);
+				skipLine();
+			} else if (lines > 0) {
+				// a stray quote swallowed the lines up to the next quote, any records on them are gone
+				reporter.incrCounter("CrimeInputFormat", "lines lost to unbalanced quotes", lines);
+			}
+		}
+		return false;
+	}
+
+	public LongWritable createKey() {
+		return new LongWritable();
+	}
+
+	public CrimeRecord createValue() {
+		return new CrimeRecord();
+	}
+
+	public long getPos() throws IOException {
+		return pos;
+	}
+
+	public float getProgress() throws IOException {
+		float retVal = 0.0f;
+		if (codec == null && end > start) {
+			retVal = Math.min(1.0f, (pos - start) / (float)(end - start));
+		}
+		return retVal;
+	}
+
+	public void close() throws IOException {
+		if (in != null && in != borrowed) {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * reads a small sample of the raw crime data on the client so that a job can be planned before it is submitted
+ * @author glenn
+ */
+public abstract class CrimeSampler extends MapReduceJobBase {
+
+	/**
+	 * read up to maxRecords records of sf crime data, spread evenly over the input splits of the job
+	 * @param conf is the job whose input paths are to be sampled
+	 * @param maxRecords is the most records to return
+	 * @return the sampled records, header rows and malformed rows are left out by the input format
+	 * @throws IOException
+	 */
+	public static List<CrimeRecord> sample(JobConf conf, int maxRecords) throws IOException {
+		List<CrimeRecord> retVal = new ArrayList<CrimeRecord>();
+		CrimeInputFormat format = new CrimeInputFormat();
+		format.configure(conf);
+		InputSplit[] splits = format.getSplits(conf, conf.getNumMapTasks());
+		if (splits.length > 0) {
+			int step = Math.max(1, splits.length / maxRecords);
+			int perSplit = Math.max(1, maxRecords / ((splits.length + step - 1) / step));
+			for (int i = 0; i < splits.length && retVal.size() < maxRecords; i += step) {
+				RecordReader<LongWritable, CrimeRecord> reader = format.getRecordReader(splits[i], conf, Reporter.NULL);
+				LongWritable key = reader.createKey();
+				CrimeRecord value = reader.createValue();
+				int taken = 0;
+				while (taken < perSplit && retVal.size() < maxRecords && reader.next(key, value)) {
+					retVal.add(value.copy());
+					taken++;
+				}
+				reader.close();
+			}
+		}
+		return retVal;
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * number of incidents on a day
+ *
+ * the day travels with the value because the old reducer API does not advance the key while iterating over a group
+ * @author glenn
+ */
+public class DayCount implements Writable {
+
+	/**
+	 * number of days since 1970/01/01
+	 */
+	private int day = 0;
+
+	private long count = 0l;
+
+	public DayCount() {
+	}
+
+	public DayCount(int day, long count) {
+		set(day, count);
+	}
+
+	public void set(int day, long count) {
+		this.day = day;
+		this.count = count;
+	}
+
+	public int getDay() {
+		return day;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(day);
+		WritableUtils.writeVLong(out, count);
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		day = in.readInt();
+		count = WritableUtils.readVLong(in);
+	}
+
+	@Override
+	public String toString() {
+		return day + "," + count;
+	}
+
+}
@@ -0,0 +1,185 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.ClusterStatus;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * sizes a job to its input and to the cluster before it is submitted
+ *
+ * the number of reducers follows the size of the input but never exceeds the number of distinct keys,
+ * which is estimated from a sample, nor the reduce slots of the cluster. The minimum split size keeps
+ * small inputs from being cut into more maps than the cluster can run at once.
+ * @author glenn
+ */
+public abstract class JobPlanner extends MapReduceJobBase {
+
+	private static Logger log = Logger.getLogger(JobPlanner.class.getCanonicalName());
+
+	/**
+	 * configuration property that fixes the number of reducers instead of planning it
+	 */
+	public static final String REDUCERS_PROPERTY = "sfcrime.plan.reducers";
+
+	/**
+	 * configuration property that fixes the minimum split size in bytes instead of planning it
+	 */
+	public static final String MIN_SPLIT_SIZE_PROPERTY = "sfcrime.plan.minsplitsize";
+
+	/**
+	 * configuration property that holds how many bytes of input each reducer should be planned for
+	 */
+	public static final String BYTES_PER_REDUCER_PROPERTY = "sfcrime.plan.bytesperreducer";
+
+	/**
+	 * configuration property that holds the smallest split worth starting a map for
+	 */
+	public static final String SPLIT_FLOOR_PROPERTY = "sfcrime.plan.splitfloor";
+
+	/**
+	 * configuration property that holds how many records to sample when estimating the number of keys
+	 */
+	public static final String SAMPLE_SIZE_PROPERTY = "sfcrime.plan.samplesize";
+
+	/**
+	 * hadoop property for the minimum split size of the old api
+	 */
+	private static final String MIN_SPLIT_SIZE = "mapred.min.split.size";
+
+	/**
+	 * @param conf is the job whose input paths are to be measured
+	 * @return the total number of bytes in the input paths
+	 * @throws IOException
+	 */
+	private static long getInputSize(JobConf conf) throws IOException {
+		long retVal = 0l;
+		for (Path p : FileInputFormat.getInputPaths(conf)) {
+			FileSystem fs = p.getFileSystem(conf);
+			FileStatus[] matches = fs.globStatus(p);
+			if (matches != null) {
+				for (FileStatus match : matches) {
+					retVal += fs.getContentSummary(match.getPath()).getLength();
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * estimate how many distinct keys the job will have, dates are estimated from the range of the sampled
+	 * dates since a sample sees only a fraction of them, any other column by the values seen in the sample
+	 * @param conf is the job to be run
+	 * @param keyID is the zero based index of the column that the job groups by
+	 * @return the estimated number of keys, zero if the sample is empty
+	 * @throws IOException
+	 */
+	private static int getKeyCardinality(JobConf conf, int keyID) throws IOException {
+		List<CrimeRecord> sample = CrimeSampler.sample(conf, conf.getInt(SAMPLE_SIZE_PROPERTY, 10000));
+		int retVal = 0;
+		if (keyID == DATE_COLUMN_INDEX) {
+			int first = Integer.MAX_VALUE;
+			int last = Integer.MIN_VALUE;
+			for (CrimeRecord record : sample) {
+				try {
+					int day = getEpochDay(getDate(record.get(DATE_COLUMN_INDEX)));
+					first = Math.min(first, day);
+					last = Math.max(last, day);
+				} catch (ParseException e) {
+					log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{record.get(DATE_COLUMN_INDEX)}), e);
+				}
+			}
+			if (last >= first) {
+				retVal = last - first + 1;
+			}
+		} else {
+			Set<String> keys = new HashSet<String>();
+			for (CrimeRecord record : sample) {
+				keys.add(record.get(keyID));
+			}
+			retVal = keys.size();
+		}
+		return retVal;
+	}
+
+	/**
+	 * choose the number of reducers and the minimum split size of a job whose input paths are already set
+	 * @param conf is the job to be planned
+	 * @param keyID is the zero based index of the column that the job groups by
+	 * @throws IOException
+	 */
+	public static void plan(JobConf conf, int keyID) throws IOException {
+		long inputSize = getInputSize(conf);
+		int mapSlots = 1;
+		int reduceSlots = 1;
+		try {
+			ClusterStatus cluster = new JobClient(conf).getClusterStatus();
+			mapSlots = Math.max(1, cluster.getMaxMapTasks());
+			reduceSlots = Math.max(1, cluster.getMaxReduceTasks());
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Cannot reach the cluster, planning for a single map and reduce slot.", e);
+		}
+		StringBuffer explanation = new StringBuffer();
+		explanation.append(MessageFormat.format("{0}: {1,number,#} input bytes, {2,number,#} map slots, {3,number,#} reduce slots", new Object[]{conf.getJobName(), inputSize, mapSlots, reduceSlots}));
+
+		int reducers = conf.getInt(REDUCERS_PROPERTY, 0);
+		if (reducers > 0) {
+			explanation.append(MessageFormat.format(", {0,number,#} reducers as configured", new Object[]{reducers}));
+		} else {
+			long bytesPerReducer = conf.getLong(BYTES_PER_REDUCER_PROPERTY, 1024l * 1024l * 1024l);
+			int keys = getKeyCardinality(conf, keyID);
+			// leave a little headroom so that a failed reduce can be retried without a second wave
+			int capacity = Math.max(1, (int)(reduceSlots * 0.95));
+			reducers = (int)Math.max(1l, (inputSize + bytesPerReducer - 1l) / bytesPerReducer);
+			reducers = Math.min(reducers, capacity);
+			if (keys > 0) {
+				reducers = Math.min(reducers, keys);
+			}
+			explanation.append(MessageFormat.format(", about {0,number,#} keys, {1,number,#} bytes per reducer so {2,number,#} reducers", new Object[]{keys, bytesPerReducer, reducers}));
+		}
+		conf.setNumReduceTasks(reducers);
+
+		long minSplitSize = conf.getLong(MIN_SPLIT_SIZE_PROPERTY, 0l);
+		if (minSplitSize > 0l) {
+			explanation.append(MessageFormat.format(", {0,number,#} byte minimum split as configured", new Object[]{minSplitSize}));
+		} else {
+			long floor = conf.getLong(SPLIT_FLOOR_PROPERTY, 16l * 1024l * 1024l);
+			long blockSize = FileSystem.get(conf).getDefaultBlockSize();
+			// one wave of maps for small inputs, block sized splits once the input is larger than that
+			minSplitSize = Math.max(floor, Math.min(blockSize, inputSize / mapSlots));
+			explanation.append(MessageFormat.format(", {0,number,#} byte minimum split", new Object[]{minSplitSize}));
+		}
+		conf.setNumMapTasks(mapSlots);
+		conf.setLong(MIN_SPLIT_SIZE, minSplitSize);
+		log.info(explanation.toString());
+	}
+
+}
@@ -0,0 +1,134 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+
+/**
+ * composite intermediate key of a category or district and the day of an incident
+ *
+ * sorting on both but partitioning and grouping on the category or district alone
+ * has the framework deliver each group's values in date order
+ * @author glenn
+ */
+public class KeyDay implements WritableComparable<KeyDay> {
+
+	/**
+	 * the category or district
+	 */
+	private final Text key = new Text();
+
+	/**
+	 * number of days since 1970/01/01
+	 */
+	private int day = 0;
+
+	public KeyDay() {
+	}
+
+	public KeyDay(String key, int day) {
+		set(key, day);
+	}
+
+	public void set(String key, int day) {
+		this.key.set(key);
+		this.day = day;
+	}
+
+	public Text getKey() {
+		return key;
+	}
+
+	public int getDay() {
+		return day;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		key.write(out);
+		out.writeInt(day);
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		key.readFields(in);
+		day = in.readInt();
+	}
+
+	public int compareTo(KeyDay other) {
+		int retVal = key.compareTo(other.key);
+		if (retVal == 0) {
+			retVal = day < other.day ? -1 : (day == other.day ? 0 : 1);
+		}
+		return retVal;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof KeyDay && compareTo((KeyDay)o) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return key.hashCode() * 31 + day;
+	}
+
+	@Override
+	public String toString() {
+		return key.toString() + "\t" + day;
+	}
+
+	/**
+	 * sends every day of a category or district to the same reducer
+	 * @author glenn
+	 */
+	public static class KeyPartitioner implements Partitioner<KeyDay, DayCount> {
+
+		public void configure(JobConf job) {
+		}
+
+		public int getPartition(KeyDay key, DayCount value, int numPartitions) {
+			return (key.key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+		}
+
+	}
+
+	/**
+	 * groups every day of a category or district into a single reduce call
+	 * @author glenn
+	 */
+	public static class KeyGroupingComparator extends WritableComparator {
+
+		public KeyGroupingComparator() {
+			super(KeyDay.class, true);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public int compare(WritableComparable a, WritableComparable b) {
+			return ((KeyDay)a).key.compareTo(((KeyDay)b).key);
+		}
+
+	}
+
+}
@@ -19,7 +19,9 @@ limitations under the License.
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import au.com.bytecode.opencsv.CSVReader;
 import java.io.ByteArrayInputStream;
@@ -34,6 +36,11 @@ import com.dynamicalsoftware.util.DataFile;
  */
 public abstract class MapReduceJobBase {
 
+	/**
+	 * zero based index into sf crime data where the incident number column is found
+	 */
+	protected static final int INCIDENT_COLUMN_INDEX = 0;
+
 	/**
 	 * zero based index into sf crime data where the category column is found
 	 */
@@ -48,12 +55,32 @@ public abstract class MapReduceJobBase {
 	 * zero based index into sf crime data where the date column is found
 	 */
 	protected static final int DATE_COLUMN_INDEX = 4;
+
+	/**
+	 * zero based index into sf crime data where the time of day column is found
+	 */
+	protected static final int TIME_COLUMN_INDEX = 5;
 	
 	/**
 	 * zero based index into sf crime data where the distrct column is found
 	 */
 	protected static final int DISTRICT_COLUMN_INDEX = 6;
 
+	/**
+	 * zero based index into sf crime data where the longitude (X) column is found
+	 */
+	protected static final int X_COLUMN_INDEX = 9;
+
+	/**
+	 * zero based index into sf crime data where the latitude (Y) column is found
+	 */
+	protected static final int Y_COLUMN_INDEX = 10;
+
+	/**
+	 * number of milliseconds in a day
+	 */
+	protected static final long MILLISECONDS_IN_A_DAY = 1000l * 60l * 60l * 24l;
+
 	/**
 	 * the date format for dates in the sf crime data file
 	 */
@@ -78,5 +105,38 @@ public abstract class MapReduceJobBase {
 		}
 		return retVal;
 	}
+
+	/**
+	 * find the first day of the week in which a date falls
+	 * @param d is the date in question
+	 * @return the date on which that week starts
+	 */
+	protected static Date getWeekStart(Date d) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(d);
+		int offset = (cal.get(Calendar.DAY_OF_WEEK) - cal.getFirstDayOfWeek() + 7) % 7;
+		cal.add(Calendar.DAY_OF_MONTH, -offset);
+		return cal.getTime();
+	}
+
+	/**
+	 * convert a date into the number of days since 1970/01/01 in the local time zone
+	 * @param d is the date with time truncated
+	 * @return the day number
+	 */
+	protected static int getEpochDay(Date d) {
+		long t = d.getTime();
+		return (int)((t + TimeZone.getDefault().getOffset(t)) / MILLISECONDS_IN_A_DAY);
+	}
+
+	/**
+	 * convert a day number back into a date in the local time zone
+	 * @param epochDay is the number of days since 1970/01/01
+	 * @return the date at midnight of that day
+	 */
+	protected static Date getDate(int epochDay) {
+		long t = epochDay * MILLISECONDS_IN_A_DAY;
+		return new Date(t - TimeZone.getDefault().getOffset(t));
+	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * reads the records of each sampled range of a preview split in turn, a record belongs to the range in
+ * which its first byte falls just as it would to a split, the key of each record is the id of its range
+ * rather than its offset so that the reducers can tell the ranges apart
+ *
+ * the file is opened once and one reader, whose buffer is no larger than a range, seeks from range to range
+ * in file order so that a preview reads little more than the sampled bytes
+ * @author glenn
+ */
+public class PreviewRecordReader implements RecordReader<LongWritable, CrimeRecord> {
+
+	private final PreviewSplit split;
+
+	/**
+	 * the open file, null when the file is compressed and the reader has to open it for itself
+	 */
+	private final FSDataInputStream stream;
+
+	/**
+	 * reads every range
+	 */
+	private final CrimeRecordReader reader;
+
+	/**
+	 * the ranges of the split in the order of their starts
+	 */
+	private final Integer[] order;
+
+	/**
+	 * position in order of the range being read, or -1 before the first
+	 */
+	private int current = -1;
+
+	/**
+	 * bytes in the ranges that have been read completely
+	 */
+	private long done = 0l;
+
+	private final LongWritable offset = new LongWritable();
+
+	public PreviewRecordReader(JobConf job, final PreviewSplit split, Reporter reporter) throws IOException {
+		this.split = split;
+		order = new Integer[split.getRanges()];
+		long largest = 1l;
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+			largest = Math.max(largest, split.getLength(i));
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long sa = split.getStart(a);
+				long sb = split.getStart(b);
+				return sa < sb ? -1 : (sa == sb ? 0 : 1);
+			}
+		});
+		boolean compressed = new CompressionCodecFactory(job).getCodec(split.getPath()) != null;
+		stream = compressed ? null : split.getPath().getFileSystem(job).open(split.getPath());
+		reader = new CrimeRecordReader(job, split.getPath(), reporter, stream, (int)Math.min(Integer.MAX_VALUE, largest));
+	}
+
+	public boolean next(LongWritable key, CrimeRecord value) throws IOException {
+		while (current < order.length) {
+			if (current >= 0 && reader.next(offset, value)) {
+				key.set(split.getId(order[current]));
+				return true;
+			}
+			if (current >= 0) {
+				done += split.getLength(order[current]);
+			}
+			current++;
+			if (current < order.length) {
+				reader.setRange(split.getStart(order[current]), split.getLength(order[current]));
+			}
+		}
+		return false;
+	}
+
+	public LongWritable createKey() {
+		return new LongWritable();
+	}
+
+	public CrimeRecord createValue() {
+		return new CrimeRecord();
+	}
+
+	public long getPos() throws IOException {
+		return done;
+	}
+
+	public float getProgress() throws IOException {
+		long length = split.getLength();
+		return length > 0l ? Math.min(1.0f, done / (float)length) : 1.0f;
+	}
+
+	public void close() throws IOException {
+		reader.close();
+		if (stream != null) {
+			stream.close();
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.InputSplit;
+
+/**
+ * the sampled byte ranges of one file that a single map task reads in preview mode
+ * @author glenn
+ */
+public class PreviewSplit implements InputSplit {
+
+	private Path file = null;
+
+	/**
+	 * identifies each range within the whole preview, the key of every record read from the range
+	 */
+	private final List<Long> ids = new ArrayList<Long>();
+
+	private final List<Long> starts = new ArrayList<Long>();
+
+	private final List<Long> lengths = new ArrayList<Long>();
+
+	private String[] hosts = new String[0];
+
+	public PreviewSplit() {
+	}
+
+	/**
+	 * @param file is the file that the ranges are in
+	 * @param hosts are where the first range is stored
+	 */
+	public PreviewSplit(Path file, String[] hosts) {
+		this.file = file;
+		this.hosts = hosts;
+	}
+
+	/**
+	 * @param id identifies the range within the whole preview
+	 * @param start is the offset of the first byte of the range
+	 * @param length is the number of bytes in the range
+	 */
+	public void add(long id, long start, long length) {
+		ids.add(id);
+		starts.add(start);
+		lengths.add(length);
+	}
+
+	public Path getPath() {
+		return file;
+	}
+
+	public int getRanges() {
+		return ids.size();
+	}
+
+	public long getId(int range) {
+		return ids.get(range);
+	}
+
+	public long getStart(int range) {
+		return starts.get(range);
+	}
+
+	public long getLength(int range) {
+		return lengths.get(range);
+	}
+
+	public long getLength() {
+		long retVal = 0l;
+		for (long length : lengths) {
+			retVal += length;
+		}
+		return retVal;
+	}
+
+	public String[] getLocations() {
+		return hosts;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		Text.writeString(out, file.toString());
+		WritableUtils.writeVInt(out, ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			WritableUtils.writeVLong(out, ids.get(i));
+			WritableUtils.writeVLong(out, starts.get(i));
+			WritableUtils.writeVLong(out, lengths.get(i));
+		}
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		file = new Path(Text.readString(in));
+		ids.clear();
+		starts.clear();
+		lengths.clear();
+		int size = WritableUtils.readVInt(in);
+		for (int i = 0; i < size; i++) {
+			add(WritableUtils.readVLong(in), WritableUtils.readVLong(in), WritableUtils.readVLong(in));
+		}
+		// where the split is stored only matters to the scheduler
+		hosts = new String[0];
+	}
+
+	@Override
+	public String toString() {
+		return file + " " + ids.size() + " sampled ranges";
+	}
+
+}
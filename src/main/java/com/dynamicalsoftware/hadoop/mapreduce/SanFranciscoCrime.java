@@ -26,9 +26,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
@@ -41,10 +41,9 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.mapred.TextInputFormat;
 import org.apache.hadoop.mapred.TextOutputFormat;
-
-import com.dynamicalsoftware.util.DataFile;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.ReflectionUtils;
 
 /**
  * map/reduce job responsible for generating weekly summaries by category and district
@@ -57,7 +56,7 @@ public class SanFranciscoCrime extends MapReduceJobBase {
 	/**
 	 * factored out common functionality of all the mapper classes
 	 */
-	public static abstract class Map extends MapReduceBase implements Mapper<LongWritable, Text, Text, Text> {
+	public static abstract class Map extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, Text, Text> {
 
 		/**
 		 * zero based index identifies which column in the input data should serve as the key
@@ -70,35 +69,33 @@ public class SanFranciscoCrime extends MapReduceJobBase {
 		protected int valueID = 0;
 
 		/**
-		 * only the key and the value should be passed through to the intermediate output
+		 * in preview mode the value carries the range that the record was read from
 		 */
-		public void map(LongWritable key, Text value, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
-			String line = value.toString();
-			try {
-				String[] col = DataFile.getColumns(line);
-				if (col != null) {
-					// make sure there is enough columns in the data
-					if (col.length >= (DISTRICT_COLUMN_INDEX + 1)) {
-						// filter out the first row which contains the column header names
-						if (!"date".equalsIgnoreCase(col[valueID])) {
-							Text tk = new Text();
-							tk.set(col[keyID]);
-							Text tv = new Text();
-							tv.set(col[valueID]);
-							output.collect(tk, tv);
-						}
-					} else {
-						log.warning(MessageFormat.format("Data {0} did not parse into columns.", new Object[]{line}));
-					}
-				} else {
-					log.warning(MessageFormat.format("Data {0} did not parse into columns.", new Object[]{line}));
-				}
-			} catch (NumberFormatException nfe) {
-				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a number.\n", new Object[]{line}), nfe);
-			} catch (IOException e) {
-				log.log(Level.WARNING, MessageFormat.format("Cannot parse {0} into columns.\n", new Object[]{line}), e);
-			}
-			
+		private boolean preview = false;
+
+		@Override
+		public void configure(JobConf job) {
+			preview = CrimeInputFormat.getPreviewFraction(job) < 1.0f;
+		}
+
+		/**
+		 * gives subclasses a chance to alter the key before it is passed through to the intermediate output
+		 * @param value contains the key column from the input data
+		 * @return the key as it should be collected
+		 */
+		protected String formatKey(String value) {
+			return value;
+		}
+
+		/**
+		 * only the key and the value, followed by the id of its range in preview mode, should be passed through to the intermediate output
+		 */
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+			Text tk = new Text();
+			tk.set(formatKey(value.get(keyID)));
+			Text tv = new Text();
+			tv.set(preview ? value.get(valueID) + "\t" + key.get() : value.get(valueID));
+			output.collect(tk, tv);
 		}
 		
 	}
@@ -147,6 +144,83 @@ public class SanFranciscoCrime extends MapReduceJobBase {
 		}
 	}
 
+	/**
+	 * which weekly bucket of the report an incident falls into
+	 * @param d is the date of the incident
+	 * @return the bucket
+	 */
+	protected static int getWeekBucket(Date d) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(d);
+		int week = cal.get(Calendar.WEEK_OF_MONTH);
+		int month = cal.get(Calendar.MONTH);
+		return (month * 5) + week;
+	}
+
+	/**
+	 * @return weekly buckets that always include the first 16 weeks even when there were no incidents
+	 */
+	protected static java.util.Map<Integer, Integer> newWeekSummary() {
+		java.util.Map<Integer, Integer> weekSummary = new HashMap<Integer, Integer>();
+		for (int i=0; i<16; i++) {
+			weekSummary.put(i, 0);
+		}
+		return weekSummary;
+	}
+
+	/**
+	 * generate the output report line
+	 * @param weekSummary maps weekly bucket to total incidents
+	 * @return the comma separated totals
+	 */
+	protected static String formatWeekSummary(java.util.Map<Integer, Integer> weekSummary) {
+		StringBuffer rpt = new StringBuffer();
+		boolean first = true;
+		for (int week : weekSummary.keySet()) {
+			if (first) {
+				first = false;
+			} else {
+				rpt.append(",");
+			}
+			rpt.append(new Integer(weekSummary.get(week)).toString());
+		}
+		return rpt.toString();
+	}
+
+	/**
+	 * generate the output report line of a preview, each weekly total is scaled up by the bytes of input per byte read
+	 * and followed by the margin of its 95% confidence interval, 1.96 standard deviations of a simple random sample of
+	 * ranges, which unlike a sample of records allows for incidents of the same week being stored together
+	 * @param weekSummary maps weekly bucket to total incidents in the sample
+	 * @param rangeSummary maps weekly bucket to the incidents in each range that had any
+	 * @param job holds the size of the sample, set when the splits were computed
+	 * @return the comma separated estimates, each as estimate+-margin
+	 */
+	protected static String formatWeekSummary(java.util.Map<Integer, Integer> weekSummary, java.util.Map<Integer, java.util.Map<Long, Integer>> rangeSummary, JobConf job) {
+		double scale = Double.parseDouble(job.get(CrimeInputFormat.PREVIEW_SCALE_PROPERTY, "1"));
+		int ranges = job.getInt(CrimeInputFormat.PREVIEW_RANGES_PROPERTY, 1);
+		int totalRanges = job.getInt(CrimeInputFormat.PREVIEW_TOTAL_RANGES_PROPERTY, ranges);
+		StringBuffer rpt = new StringBuffer();
+		for (int week : weekSummary.keySet()) {
+			if (rpt.length() > 0) {
+				rpt.append(",");
+			}
+			int sampled = weekSummary.get(week);
+			// ranges without any incidents of the week count as zero
+			double squares = 0.0;
+			if (rangeSummary.containsKey(week)) {
+				for (int count : rangeSummary.get(week).values()) {
+					squares += (double)count * count;
+				}
+			}
+			double variance = ranges > 1 ? Math.max(0.0, (squares - (double)sampled * sampled / ranges) / (ranges - 1)) : 0.0;
+			rpt.append(Math.round(sampled * scale));
+			rpt.append("+-");
+			rpt.append(Math.round(1.96 * scale * Math.sqrt(ranges * (1.0 - (double)ranges / totalRanges) * variance)));
+		}
+		return rpt.toString();
+	}
+
 	/**
 	 * responsible for generating the report output based on the intermediate output from the mappers
 	 * @author glenn
@@ -154,6 +228,19 @@ public class SanFranciscoCrime extends MapReduceJobBase {
 	public static class ReduceByWeek extends MapReduceBase implements Reducer<Text, Text, Text, Text> {
 		
 		private static final long millisecondsInAWeek = 1000l * 60l * 60l * 24l * 7l;
+
+		private JobConf job = null;
+
+		/**
+		 * whether each value is followed by the id of the range it was read from
+		 */
+		private boolean preview = false;
+
+		@Override
+		public void configure(JobConf job) {
+			this.job = job;
+			preview = CrimeInputFormat.getPreviewFraction(job) < 1.0f;
+		}
 		
 		/**
 		 * reduces the data (category or district) into weekly totals
@@ -167,40 +254,35 @@ public class SanFranciscoCrime extends MapReduceJobBase {
 			if (incidents.size() > 0) {
 				// sort that list by date
 				Collections.sort(incidents);
-				java.util.Map<Integer, Integer> weekSummary = new HashMap<Integer, Integer>();
-				for (int i=0; i<16; i++) {
-					weekSummary.put(i, 0);
-				}
+				java.util.Map<Integer, Integer> weekSummary = newWeekSummary();
+				java.util.Map<Integer, java.util.Map<Long, Integer>> rangeSummary = new HashMap<Integer, java.util.Map<Long, Integer>>();
 				// aggregate each incident into weekly buckets
-				for (String incidentDay : incidents) {
+				for (String incident : incidents) {
+					String incidentDay = incident;
 					try {
-						Date d = getDate(incidentDay);
-						Calendar cal = Calendar.getInstance();
-						cal.setTime(d);
-						int week = cal.get(Calendar.WEEK_OF_MONTH);
-						int month = cal.get(Calendar.MONTH);
-						int bucket = (month * 5) + week;
+						if (preview) {
+							int tab = incident.lastIndexOf('\t');
+							incidentDay = incident.substring(0, tab);
+						}
+						int bucket = getWeekBucket(getDate(incidentDay));
 						if (weekSummary.containsKey(bucket)) {
 							weekSummary.put(bucket, new Integer(weekSummary.get(bucket).intValue() + 1));
 						} else {
 							weekSummary.put(bucket, new Integer(1));
 						}
+						if (preview) {
+							long range = Long.parseLong(incident.substring(incident.lastIndexOf('\t') + 1));
+							if (!rangeSummary.containsKey(bucket)) {
+								rangeSummary.put(bucket, new HashMap<Long, Integer>());
+							}
+							java.util.Map<Long, Integer> counts = rangeSummary.get(bucket);
+							counts.put(range, counts.containsKey(range) ? counts.get(range) + 1 : 1);
+						}
 					} catch (ParseException pe) {
 						log.warning(MessageFormat.format("Invalid date {0}", new Object[]{incidentDay}));
 					}
 				}
-				// generate the output report line
-				StringBuffer rpt = new StringBuffer();
-				boolean first = true;
-				for (int week : weekSummary.keySet()) {
-					if (first) {
-						first = false;
-					} else {
-						rpt.append(",");
-					}
-					rpt.append(new Integer(weekSummary.get(week)).toString());
-				}
-				String list = rpt.toString();
+				String list = preview ? formatWeekSummary(weekSummary, rangeSummary, job) : formatWeekSummary(weekSummary);
 				Text tv = new Text();
 				tv.set(list);
 				output.collect(key, tv);
@@ -209,26 +291,49 @@ public class SanFranciscoCrime extends MapReduceJobBase {
 		
 	}
 
-	private static void generate(String name, Class mapper, String input, String output) throws IOException {
-		JobConf conf = new JobConf(SanFranciscoCrime.class);
+	/**
+	 * sets up, plans and runs the hadoop map/reduce job itself, or its skew resistant equivalent when sfcrime.skew.enabled is set
+	 * and this is not a preview, whose estimates need the counts of each range that salted partial totals would merge
+	 * @param base holds any configuration specified on the command line
+	 * @param name contains the name of the job itself
+	 * @param mapper identified which mapper class to use
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param output is the fully qualified path to where the generated report should reside
+	 * @throws IOException
+	 */
+	private static void generate(Configuration base, String name, Class mapper, String input, String output) throws IOException {
+		if (base.getBoolean(SanFranciscoCrimeSkew.ENABLED_PROPERTY, false) && CrimeInputFormat.getPreviewFraction(base) >= 1.0f) {
+			// plans its own partial job
+			SanFranciscoCrimeSkew.generate(base, name, mapper, input, output);
+			return;
+		}
+		JobConf conf = new JobConf(base, SanFranciscoCrime.class);
 		conf.setJobName(name);
+		FileInputFormat.setInputPaths(conf, new Path(input));
+		JobPlanner.plan(conf, ((Map)ReflectionUtils.newInstance(mapper, conf)).keyID);
 		conf.setOutputKeyClass(Text.class);
 		conf.setOutputValueClass(Text.class);
 		conf.setMapperClass(mapper);
 		conf.setReducerClass(ReduceByWeek.class);
-		conf.setInputFormat(TextInputFormat.class);
+		conf.setInputFormat(CrimeInputFormat.class);
 		conf.setOutputFormat(TextOutputFormat.class);
-		FileInputFormat.setInputPaths(conf, new Path(input));
 		FileOutputFormat.setOutputPath(conf, new Path(output));
 		JobClient.runJob(conf);		
 	}
 	
 	public static void main(String[] args) throws Exception {
-		if (args.length == 3) {
-			generate("category-vs-week", CategoryMapByDate.class, args[0], args[1]);
-			generate("district-vs-week", DistrictMapByDate.class, args[0], args[2]);
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (args.length == 3 || args.length == 5) {
+			generate(conf, "category-vs-week", CategoryMapByDate.class, args[0], args[1]);
+			generate(conf, "district-vs-week", DistrictMapByDate.class, args[0], args[2]);
+			if (args.length == 5) {
+				// rates are not estimated from a sample so they are always computed from every record
+				CrimeInputFormat.clearPreview(conf, "district-rates-vs-week");
+				SanFranciscoCrimeRates.generate(conf, "district-rates-vs-week", args[0], args[3], args[4]);
+			}
 		} else {
-			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrime path/to/input/directory path/to/category/report path/to/distripution/repot");
+			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrime [-D sfcrime.skew.enabled=true] [-D sfcrime.preview.fraction=0.01 [-D sfcrime.preview.seed=n] [-D sfcrime.preview.rangesize=bytes]] [-D sfcrime.plan.reducers=n] [-D sfcrime.plan.minsplitsize=bytes] path/to/input/directory path/to/category/report path/to/distripution/repot [path/to/district/reference.csv path/to/district/rates]");
 		}
 	}
 	
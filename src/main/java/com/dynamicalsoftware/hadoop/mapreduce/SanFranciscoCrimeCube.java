@@ -0,0 +1,331 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.LongSumReducer;
+import org.apache.hadoop.mapred.lib.MultipleTextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * map/reduce job responsible for materializing every group by combination (cuboid) of a set of dimensions in one pass
+ *
+ * the mappers aggregate the finest cuboid in memory then roll each coarser cuboid up from its
+ * smallest already computed parent rather than from the raw rows, every cuboid is written to its own directory
+ * @author glenn
+ */
+public class SanFranciscoCrimeCube extends MapReduceJobBase {
+
+	private static Logger log = Logger.getLogger(SanFranciscoCrimeCube.class.getCanonicalName());
+
+	/**
+	 * configuration property that holds the comma separated list of dimensions to cube
+	 */
+	public static final String DIMENSIONS_PROPERTY = "sfcrime.cube.dimensions";
+
+	/**
+	 * configuration property that limits how many base cells a mapper holds before rolling up and flushing them
+	 */
+	public static final String MAX_CELLS_PROPERTY = "sfcrime.cube.maxcells";
+
+	/**
+	 * all the dimensions that can be cubed
+	 */
+	public static final String DEFAULT_DIMENSIONS = "category,district,dotw,date,hour";
+
+	/**
+	 * name of the cuboid with no dimensions, the grand total
+	 */
+	private static final String APEX = "all";
+
+	/**
+	 * read the dimensions to cube, so that a misspelled one fails the job before it starts rather than every map task
+	 * @param job holds the configuration
+	 * @return the names of the dimensions in the order given
+	 * @throws IllegalArgumentException when a dimension is unknown or given more than once
+	 */
+	private static String[] getDimensions(JobConf job) {
+		String[] retVal = job.get(DIMENSIONS_PROPERTY, DEFAULT_DIMENSIONS).split(",");
+		List<String> known = Arrays.asList(DEFAULT_DIMENSIONS.split(","));
+		Set<String> seen = new HashSet<String>();
+		for (String dimension : retVal) {
+			if (!known.contains(dimension)) {
+				throw new IllegalArgumentException(MessageFormat.format("Unknown dimension {0} in {1}, the dimensions are {2}", new Object[]{dimension, DIMENSIONS_PROPERTY, DEFAULT_DIMENSIONS}));
+			}
+			if (!seen.add(dimension)) {
+				throw new IllegalArgumentException(MessageFormat.format("Dimension {0} is given more than once in {1}", new Object[]{dimension, DIMENSIONS_PROPERTY}));
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * extract the value of a dimension from a row of sf crime data
+	 * @param dimension is the name of the dimension
+	 * @param record is the row
+	 * @return the value of the dimension for this row
+	 * @throws ParseException
+	 */
+	private static String getDimensionValue(String dimension, CrimeRecord record) throws ParseException {
+		String retVal = null;
+		if ("category".equals(dimension)) {
+			retVal = record.get(CATEGORY_COLUMN_INDEX);
+		} else if ("district".equals(dimension)) {
+			retVal = record.get(DISTRICT_COLUMN_INDEX);
+		} else if ("dotw".equals(dimension)) {
+			retVal = record.get(DAY_OF_WEEK_COLUMN_INDEX);
+		} else if ("date".equals(dimension)) {
+			retVal = outputDateFormat.format(getDate(record.get(DATE_COLUMN_INDEX)));
+		} else if ("hour".equals(dimension)) {
+			String[] tp = record.get(TIME_COLUMN_INDEX).split(":");
+			retVal = tp[0].length() == 1 ? "0".concat(tp[0]) : tp[0];
+		} else {
+			throw new IllegalArgumentException(MessageFormat.format("Unknown dimension {0}", new Object[]{dimension}));
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param dimensions are the names of all dimensions being cubed
+	 * @param mask has a bit set for each dimension in the cuboid
+	 * @return the name of the cuboid, which is also the name of its output directory
+	 */
+	private static String getCuboidName(String[] dimensions, int mask) {
+		StringBuffer retVal = new StringBuffer();
+		for (int i = 0; i < dimensions.length; i++) {
+			if ((mask & (1 << i)) != 0) {
+				if (retVal.length() > 0) {
+					retVal.append("-");
+				}
+				retVal.append(dimensions[i]);
+			}
+		}
+		return retVal.length() > 0 ? retVal.toString() : APEX;
+	}
+
+	/**
+	 * aggregates the base cuboid in memory then derives and emits every cuboid of the lattice from it
+	 * @author glenn
+	 */
+	public static class CubeMap extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, Text, LongWritable> {
+
+		private String[] dimensions = null;
+
+		private String[] cuboidNames = null;
+
+		private int maxCells = 10000;
+
+		/**
+		 * counts by tab separated dimension values of the base (finest) cuboid
+		 */
+		private final java.util.Map<String, long[]> base = new HashMap<String, long[]>();
+
+		/**
+		 * remembered from the map calls so that the cuboids can be emitted on close
+		 */
+		private OutputCollector<Text, LongWritable> collector = null;
+
+		@Override
+		public void configure(JobConf job) {
+			dimensions = getDimensions(job);
+			maxCells = job.getInt(MAX_CELLS_PROPERTY, 10000);
+			cuboidNames = new String[1 << dimensions.length];
+			for (int mask = 0; mask < cuboidNames.length; mask++) {
+				cuboidNames[mask] = getCuboidName(dimensions, mask);
+			}
+		}
+
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<Text, LongWritable> output, Reporter reporter) throws IOException {
+			collector = output;
+			try {
+				StringBuffer cell = new StringBuffer();
+				for (int i = 0; i < dimensions.length; i++) {
+					if (i > 0) {
+						cell.append("\t");
+					}
+					cell.append(getDimensionValue(dimensions[i], value));
+				}
+				String ck = cell.toString();
+				long[] count = base.get(ck);
+				if (count == null) {
+					count = new long[1];
+					base.put(ck, count);
+				}
+				count[0]++;
+				if (base.size() >= maxCells) {
+					flush();
+				}
+			} catch (ParseException e) {
+				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{value.get(DATE_COLUMN_INDEX)}), e);
+			}
+		}
+
+		/**
+		 * roll a parent cuboid up into a child cuboid that has one less dimension
+		 * @param parent holds the cells of the parent cuboid
+		 * @param position is the zero based position among the parent's dimensions of the one to drop
+		 * @return the cells of the child cuboid
+		 */
+		private java.util.Map<String, long[]> rollup(java.util.Map<String, long[]> parent, int position) {
+			java.util.Map<String, long[]> retVal = new HashMap<String, long[]>();
+			for (String pk : parent.keySet()) {
+				String[] values = pk.split("\t", -1);
+				StringBuffer cell = new StringBuffer();
+				boolean first = true;
+				for (int i = 0; i < values.length; i++) {
+					if (i != position) {
+						// an empty dimension value still needs its separator to keep the columns aligned
+						if (first) {
+							first = false;
+						} else {
+							cell.append("\t");
+						}
+						cell.append(values[i]);
+					}
+				}
+				String ck = cell.toString();
+				long[] count = retVal.get(ck);
+				if (count == null) {
+					count = new long[1];
+					retVal.put(ck, count);
+				}
+				count[0] += parent.get(pk)[0];
+			}
+			return retVal;
+		}
+
+		/**
+		 * derive every cuboid from the base cuboid, emit them all, then start over
+		 * @throws IOException
+		 */
+		@SuppressWarnings("unchecked")
+		private void flush() throws IOException {
+			if (collector != null && base.size() > 0) {
+				int full = cuboidNames.length - 1;
+				java.util.Map<String, long[]>[] cuboids = new java.util.Map[cuboidNames.length];
+				cuboids[full] = base;
+				// a parent always has a higher mask than its children so walking down the masks visits parents first
+				for (int mask = full; mask >= 0; mask--) {
+					if (mask != full) {
+						// of the parents, each of which adds back one missing dimension, roll up the one with the fewest cells
+						int missing = 0;
+						for (int bit = Integer.lowestOneBit(~mask & full); bit != 0; bit = Integer.lowestOneBit(~mask & full & ~((bit << 1) - 1))) {
+							if (missing == 0 || cuboids[mask | bit].size() < cuboids[mask | missing].size()) {
+								missing = bit;
+							}
+						}
+						int position = Integer.bitCount(mask & (missing - 1));
+						cuboids[mask] = rollup(cuboids[mask | missing], position);
+					}
+					for (String ck : cuboids[mask].keySet()) {
+						String k = mask == 0 ? APEX : ck;
+						collector.collect(new Text(cuboidNames[mask].concat("\t").concat(k)), new LongWritable(cuboids[mask].get(ck)[0]));
+					}
+				}
+			}
+			base.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+	}
+
+	/**
+	 * writes each cuboid into its own directory and strips the cuboid name off of the key
+	 * @author glenn
+	 */
+	public static class CuboidOutputFormat extends MultipleTextOutputFormat<Text, LongWritable> {
+
+		@Override
+		protected String generateFileNameForKeyValue(Text key, LongWritable value, String name) {
+			String k = key.toString();
+			return k.substring(0, k.indexOf('\t')).concat("/").concat(name);
+		}
+
+		@Override
+		protected Text generateActualKey(Text key, LongWritable value) {
+			String k = key.toString();
+			return new Text(k.substring(k.indexOf('\t') + 1));
+		}
+
+	}
+
+	/**
+	 * sets up and runs the hadoop map/reduce job itself
+	 * @param base holds any configuration specified on the command line
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param output is the fully qualified path to where the cuboid directories should reside
+	 * @throws IOException
+	 */
+	private static void generate(Configuration base, String input, String output) throws IOException {
+		JobConf conf = new JobConf(base, SanFranciscoCrimeCube.class);
+		conf.setJobName("data-cube");
+		getDimensions(conf);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(LongWritable.class);
+		conf.setMapperClass(CubeMap.class);
+		conf.setCombinerClass(LongSumReducer.class);
+		conf.setReducerClass(LongSumReducer.class);
+		conf.setInputFormat(CrimeInputFormat.class);
+		conf.setOutputFormat(CuboidOutputFormat.class);
+		FileInputFormat.setInputPaths(conf, new Path(input));
+		FileOutputFormat.setOutputPath(conf, new Path(output));
+		JobClient.runJob(conf);
+	}
+
+	/**
+	 * enforce proper CLI usage then drive the overall process
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] remaining = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (remaining.length == 2) {
+			CrimeInputFormat.clearPreview(conf, "the cube");
+			generate(conf, remaining[0], remaining[1]);
+		} else {
+			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrimeCube [-D sfcrime.cube.dimensions=" + DEFAULT_DIMENSIONS + "] path/to/input/directory path/to/cube/data");
+		}
+	}
+
+}
@@ -0,0 +1,367 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.LongSumReducer;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+import com.dynamicalsoftware.util.HyperLogLog;
+
+/**
+ * map/reduce job responsible for removing the duplicate rows that appear when overlapping pulls of the feed are concatenated
+ *
+ * a first job finds the fingerprints of the record identities that occur more than once and the driver turns them into
+ * a bloom filter. In the second job any record whose fingerprint is not in the filter is certainly unique so the mapper
+ * writes it straight out, only the possible duplicates are shuffled to a reducer that keeps one copy of each identity.
+ * The output is csv in the same layout as the raw data, without the header, so the other jobs can run on it.
+ * @author glenn
+ */
+public class SanFranciscoCrimeDedup extends MapReduceJobBase {
+
+	private static Logger log = Logger.getLogger(SanFranciscoCrimeDedup.class.getCanonicalName());
+
+	/**
+	 * configuration property that holds the comma separated zero based indexes of the columns that identify a record
+	 */
+	public static final String IDENTITY_PROPERTY = "sfcrime.dedup.identity";
+
+	/**
+	 * configuration property that holds the acceptable false positive rate of the bloom filter
+	 */
+	public static final String FALSE_POSITIVE_PROPERTY = "sfcrime.dedup.fpp";
+
+	/**
+	 * configuration property, set by the driver, that holds the path to the bloom filter of duplicate fingerprints
+	 */
+	public static final String FILTER_PROPERTY = "sfcrime.dedup.filter";
+
+	/**
+	 * incident number, category and date, add the description column when an incident may legitimately
+	 * have two rows of the same category on the same day
+	 */
+	public static final String DEFAULT_IDENTITY = "0,1,4";
+
+	/**
+	 * name of the additional output that the mappers write the certainly unique records to
+	 */
+	public static final String UNIQUE_OUTPUT = "unique";
+
+	/**
+	 * @param job holds the identity property
+	 * @return the zero based indexes of the columns that identify a record
+	 */
+	private static int[] getIdentityColumns(JobConf job) {
+		String[] ic = job.get(IDENTITY_PROPERTY, DEFAULT_IDENTITY).split(",");
+		int[] retVal = new int[ic.length];
+		for (int i = 0; i < ic.length; i++) {
+			retVal[i] = Integer.parseInt(ic[i].trim());
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param record is the row
+	 * @param identity are the columns that identify the row
+	 * @return the tab separated values of the identity columns
+	 */
+	private static String getIdentity(CrimeRecord record, int[] identity) {
+		StringBuffer retVal = new StringBuffer();
+		for (int i = 0; i < identity.length; i++) {
+			if (i > 0) {
+				retVal.append("\t");
+			}
+			retVal.append(record.get(identity[i]));
+		}
+		return retVal.toString();
+	}
+
+	/**
+	 * @param fingerprint is the hash of a record identity
+	 * @return the fingerprint as a bloom filter key
+	 */
+	private static Key toKey(long fingerprint) {
+		byte[] k = new byte[8];
+		for (int i = 0; i < k.length; i++) {
+			k[i] = (byte)(fingerprint >>> (i * 8));
+		}
+		return new Key(k);
+	}
+
+	/**
+	 * emits the fingerprint of each record identity
+	 * @author glenn
+	 */
+	public static class FingerprintMap extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, LongWritable, LongWritable> {
+
+		private int[] identity = null;
+
+		private final LongWritable fingerprint = new LongWritable();
+
+		private final LongWritable one = new LongWritable(1l);
+
+		@Override
+		public void configure(JobConf job) {
+			identity = getIdentityColumns(job);
+		}
+
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<LongWritable, LongWritable> output, Reporter reporter) throws IOException {
+			fingerprint.set(HyperLogLog.hash(getIdentity(value, identity)));
+			output.collect(fingerprint, one);
+		}
+
+	}
+
+	/**
+	 * keeps only the fingerprints seen more than once
+	 * @author glenn
+	 */
+	public static class DuplicateReduce extends MapReduceBase implements Reducer<LongWritable, LongWritable, LongWritable, NullWritable> {
+
+		public void reduce(LongWritable key, Iterator<LongWritable> values, OutputCollector<LongWritable, NullWritable> output, Reporter reporter) throws IOException {
+			long count = 0l;
+			while (values.hasNext()) {
+				count += values.next().get();
+			}
+			if (count > 1l) {
+				output.collect(key, NullWritable.get());
+			}
+		}
+
+	}
+
+	/**
+	 * writes the records that are certainly unique and sends the possible duplicates on to the reducers
+	 * @author glenn
+	 */
+	public static class DedupMap extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, Text, CrimeRecord> {
+
+		private int[] identity = null;
+
+		private final BloomFilter filter = new BloomFilter();
+
+		private MultipleOutputs mos = null;
+
+		private final Text line = new Text();
+
+		private final Text tk = new Text();
+
+		@Override
+		public void configure(JobConf job) {
+			identity = getIdentityColumns(job);
+			mos = new MultipleOutputs(job);
+			try {
+				Path p = new Path(job.get(FILTER_PROPERTY));
+				FSDataInputStream in = p.getFileSystem(job).open(p);
+				filter.readFields(in);
+				in.close();
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot load the bloom filter of duplicate fingerprints.", e);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<Text, CrimeRecord> output, Reporter reporter) throws IOException {
+			String id = getIdentity(value, identity);
+			if (filter.membershipTest(toKey(HyperLogLog.hash(id)))) {
+				tk.set(id);
+				output.collect(tk, value);
+				reporter.incrCounter("dedup", "possible duplicates", 1l);
+			} else {
+				line.set(value.toString());
+				mos.getCollector(UNIQUE_OUTPUT, reporter).collect(NullWritable.get(), line);
+				reporter.incrCounter("dedup", "unique", 1l);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			mos.close();
+		}
+
+	}
+
+	/**
+	 * keeps the first copy of each identity, used to drop the duplicates that a single mapper sees before the shuffle
+	 * @author glenn
+	 */
+	public static class DedupCombine extends MapReduceBase implements Reducer<Text, CrimeRecord, Text, CrimeRecord> {
+
+		public void reduce(Text key, Iterator<CrimeRecord> values, OutputCollector<Text, CrimeRecord> output, Reporter reporter) throws IOException {
+			output.collect(key, values.next());
+		}
+
+	}
+
+	/**
+	 * writes one copy of each identity
+	 * @author glenn
+	 */
+	public static class DedupReduce extends MapReduceBase implements Reducer<Text, CrimeRecord, NullWritable, Text> {
+
+		private final Text line = new Text();
+
+		public void reduce(Text key, Iterator<CrimeRecord> values, OutputCollector<NullWritable, Text> output, Reporter reporter) throws IOException {
+			line.set(values.next().toString());
+			output.collect(NullWritable.get(), line);
+			while (values.hasNext()) {
+				values.next();
+				reporter.incrCounter("dedup", "duplicates removed", 1l);
+			}
+		}
+
+	}
+
+	/**
+	 * read the duplicate fingerprints found by the first job and store them as a bloom filter sized for the requested false positive rate
+	 * @param conf holds the false positive rate
+	 * @param fingerprints is the output directory of the first job
+	 * @param filterPath is where to store the bloom filter
+	 * @throws IOException
+	 */
+	private static void writeFilter(JobConf conf, Path fingerprints, Path filterPath) throws IOException {
+		FileSystem fs = fingerprints.getFileSystem(conf);
+		List<Long> duplicates = new ArrayList<Long>();
+		LongWritable key = new LongWritable();
+		NullWritable value = NullWritable.get();
+		for (FileStatus part : fs.listStatus(fingerprints)) {
+			if (part.getPath().getName().startsWith("part")) {
+				SequenceFile.Reader reader = new SequenceFile.Reader(fs, part.getPath(), conf);
+				while (reader.next(key, value)) {
+					duplicates.add(key.get());
+				}
+				reader.close();
+			}
+		}
+		double fpp = Double.parseDouble(conf.get(FALSE_POSITIVE_PROPERTY, "0.01"));
+		int n = Math.max(1, duplicates.size());
+		int bits = (int)Math.ceil(-n * Math.log(fpp) / (Math.log(2.0) * Math.log(2.0)));
+		int hashes = Math.max(1, (int)Math.round((double)bits / n * Math.log(2.0)));
+		BloomFilter filter = new BloomFilter(bits, hashes, Hash.MURMUR_HASH);
+		for (Long fingerprint : duplicates) {
+			filter.add(toKey(fingerprint));
+		}
+		FSDataOutputStream out = fs.create(filterPath, true);
+		filter.write(out);
+		out.close();
+		log.info(MessageFormat.format("{0,number,#} duplicated identities, bloom filter of {1,number,#} bits and {2,number,#} hashes", new Object[]{duplicates.size(), bits, hashes}));
+	}
+
+	/**
+	 * sets up and runs the fingerprint job, builds the filter, then runs the dedup job
+	 * @param base holds any configuration specified on the command line
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param output is the fully qualified path to where the deduplicated crime data should reside
+	 * @throws IOException
+	 */
+	private static void generate(Configuration base, String input, String output) throws IOException {
+		Path fingerprints = new Path(output.concat("-fingerprints"));
+		Path filterPath = new Path(output.concat("-bloom"));
+
+		FileSystem fs = fingerprints.getFileSystem(base);
+		// left behind by a run that failed, the fingerprint job would refuse to start and a stale filter would drop records
+		fs.delete(fingerprints, true);
+		fs.delete(filterPath, false);
+		try {
+			JobConf conf = new JobConf(base, SanFranciscoCrimeDedup.class);
+			conf.setJobName("dedup-fingerprints");
+			conf.set(CrimeInputFormat.COLUMNS_PROPERTY, conf.get(IDENTITY_PROPERTY, DEFAULT_IDENTITY));
+			conf.setMapOutputKeyClass(LongWritable.class);
+			conf.setMapOutputValueClass(LongWritable.class);
+			conf.setOutputKeyClass(LongWritable.class);
+			conf.setOutputValueClass(NullWritable.class);
+			conf.setMapperClass(FingerprintMap.class);
+			conf.setCombinerClass(LongSumReducer.class);
+			conf.setReducerClass(DuplicateReduce.class);
+			conf.setInputFormat(CrimeInputFormat.class);
+			conf.setOutputFormat(SequenceFileOutputFormat.class);
+			FileInputFormat.setInputPaths(conf, new Path(input));
+			FileOutputFormat.setOutputPath(conf, fingerprints);
+			JobClient.runJob(conf);
+			writeFilter(conf, fingerprints, filterPath);
+
+			conf = new JobConf(base, SanFranciscoCrimeDedup.class);
+			conf.setJobName("dedup");
+			conf.set(CrimeInputFormat.COLUMNS_PROPERTY, CrimeInputFormat.ALL_COLUMNS);
+			conf.set(FILTER_PROPERTY, filterPath.toString());
+			conf.setMapOutputKeyClass(Text.class);
+			conf.setMapOutputValueClass(CrimeRecord.class);
+			conf.setOutputKeyClass(NullWritable.class);
+			conf.setOutputValueClass(Text.class);
+			conf.setMapperClass(DedupMap.class);
+			conf.setCombinerClass(DedupCombine.class);
+			conf.setReducerClass(DedupReduce.class);
+			conf.setInputFormat(CrimeInputFormat.class);
+			conf.setOutputFormat(TextOutputFormat.class);
+			MultipleOutputs.addNamedOutput(conf, UNIQUE_OUTPUT, TextOutputFormat.class, NullWritable.class, Text.class);
+			FileInputFormat.setInputPaths(conf, new Path(input));
+			FileOutputFormat.setOutputPath(conf, new Path(output));
+			JobClient.runJob(conf);
+		} finally {
+			fs.delete(fingerprints, true);
+			fs.delete(filterPath, false);
+		}
+	}
+
+	/**
+	 * enforce proper CLI usage then drive the overall process
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] remaining = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (remaining.length == 2) {
+			CrimeInputFormat.clearPreview(conf, "deduplication");
+			generate(conf, remaining[0], remaining[1]);
+		} else {
+			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrimeDedup [-D sfcrime.dedup.identity=" + DEFAULT_IDENTITY + "] [-D sfcrime.dedup.fpp=0.01] path/to/input/directory path/to/deduplicated/data");
+		}
+	}
+
+}
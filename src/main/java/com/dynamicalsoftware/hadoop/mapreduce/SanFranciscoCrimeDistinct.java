@@ -0,0 +1,305 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.hadoop.mapred.lib.MultipleInputs;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.dynamicalsoftware.util.HyperLogLog;
+
+/**
+ * map/reduce job responsible for estimating the number of distinct incidents per week by category and district
+ *
+ * an incident appears once per category/description in the raw data so counting rows over counts incidents
+ *
+ * the merged sketches are stored next to each report so that a later run over only the new data can be given
+ * the reports of the earlier run and count the incidents of both without reading the earlier data again
+ * @author glenn
+ */
+public class SanFranciscoCrimeDistinct extends MapReduceJobBase {
+
+	private static Logger log = Logger.getLogger(SanFranciscoCrimeDistinct.class.getCanonicalName());
+
+	/**
+	 * configuration property that holds the precision of the sketches
+	 */
+	public static final String PRECISION_PROPERTY = "sfcrime.distinct.precision";
+
+	/**
+	 * configuration property that limits how many bytes of sketches a mapper holds before flushing them
+	 */
+	public static final String MAX_BYTES_PROPERTY = "sfcrime.distinct.maxbytes";
+
+	/**
+	 * a mapper flushes its sketches once they take up this much memory
+	 */
+	public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+	/**
+	 * name of the additional output where the merged sketches are stored for later incremental merging
+	 */
+	public static final String SKETCH_OUTPUT = "sketches";
+
+	/**
+	 * builds one sketch of incident numbers per key and week, emitting them when the mapper is done
+	 * @author glenn
+	 */
+	public static abstract class Map extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, Text, HyperLogLog> {
+
+		/**
+		 * zero based index identifies which column in the input data should serve as the key
+		 */
+		protected int keyID = 0;
+
+		/**
+		 * sketches accumulated so far by key and week
+		 */
+		private final java.util.Map<String, HyperLogLog> sketches = new HashMap<String, HyperLogLog>();
+
+		/**
+		 * remembered from the map calls so that the sketches can be emitted on close
+		 */
+		private OutputCollector<Text, HyperLogLog> collector = null;
+
+		private int precision = HyperLogLog.DEFAULT_PRECISION;
+
+		private int maxBytes = DEFAULT_MAX_BYTES;
+
+		/**
+		 * roughly how much memory the sketches and their keys take up
+		 */
+		private int bytes = 0;
+
+		@Override
+		public void configure(JobConf job) {
+			precision = job.getInt(PRECISION_PROPERTY, HyperLogLog.DEFAULT_PRECISION);
+			maxBytes = job.getInt(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+		}
+
+		/**
+		 * offer the incident number to the sketch for this key and week
+		 */
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<Text, HyperLogLog> output, Reporter reporter) throws IOException {
+			collector = output;
+			try {
+				String week = outputDateFormat.format(getWeekStart(getDate(value.get(DATE_COLUMN_INDEX))));
+				String sk = value.get(keyID).concat("\t").concat(week);
+				HyperLogLog sketch = sketches.get(sk);
+				if (sketch == null) {
+					sketch = new HyperLogLog(precision);
+					sketches.put(sk, sketch);
+					bytes += sk.length() * 2;
+				} else {
+					bytes -= sketch.getSize();
+				}
+				sketch.offer(value.get(INCIDENT_COLUMN_INDEX));
+				bytes += sketch.getSize();
+				if (bytes >= maxBytes) {
+					flush();
+				}
+			} catch (ParseException e) {
+				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{value.get(DATE_COLUMN_INDEX)}), e);
+			}
+		}
+
+		/**
+		 * emit and forget every sketch accumulated so far
+		 * @throws IOException
+		 */
+		private void flush() throws IOException {
+			if (collector != null) {
+				for (String sk : sketches.keySet()) {
+					collector.collect(new Text(sk), sketches.get(sk));
+				}
+			}
+			sketches.clear();
+			bytes = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+	}
+
+	/**
+	 * mapper for distinct incidents by category and week
+	 * @author glenn
+	 */
+	public static class CategoryMapByWeek extends Map {
+		public CategoryMapByWeek() {
+			keyID = CATEGORY_COLUMN_INDEX;
+		}
+	}
+
+	/**
+	 * mapper for distinct incidents by district and week
+	 * @author glenn
+	 */
+	public static class DistrictMapByWeek extends Map {
+		public DistrictMapByWeek() {
+			keyID = DISTRICT_COLUMN_INDEX;
+		}
+	}
+
+	/**
+	 * union all the sketches for a key and week into one
+	 * @param values are the sketches to be merged, hadoop reuses the same instance
+	 * @return the merged sketch
+	 */
+	private static HyperLogLog merge(Iterator<HyperLogLog> values) {
+		HyperLogLog retVal = null;
+		while (values.hasNext()) {
+			HyperLogLog sketch = values.next();
+			if (retVal == null) {
+				retVal = new HyperLogLog(sketch.getPrecision());
+			}
+			retVal.merge(sketch);
+		}
+		return retVal;
+	}
+
+	/**
+	 * merges the partial sketches coming out of the mappers
+	 * @author glenn
+	 */
+	public static class Combine extends MapReduceBase implements Reducer<Text, HyperLogLog, Text, HyperLogLog> {
+
+		public void reduce(Text key, Iterator<HyperLogLog> values, OutputCollector<Text, HyperLogLog> output, Reporter reporter) throws IOException {
+			HyperLogLog sketch = merge(values);
+			if (sketch != null) {
+				output.collect(key, sketch);
+			}
+		}
+
+	}
+
+	/**
+	 * reports the estimated distinct incidents for each key and week and stores the merged sketch alongside
+	 * @author glenn
+	 */
+	public static class ReduceToCardinality extends MapReduceBase implements Reducer<Text, HyperLogLog, Text, Text> {
+
+		private MultipleOutputs mos = null;
+
+		@Override
+		public void configure(JobConf job) {
+			mos = new MultipleOutputs(job);
+		}
+
+		@SuppressWarnings("unchecked")
+		public void reduce(Text key, Iterator<HyperLogLog> values, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+			HyperLogLog sketch = merge(values);
+			if (sketch != null) {
+				output.collect(key, new Text(Long.toString(sketch.cardinality())));
+				mos.getCollector(SKETCH_OUTPUT, reporter).collect(key, sketch);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			mos.close();
+		}
+
+	}
+
+	/**
+	 * sets up and runs the hadoop map/reduce job itself
+	 * @param base holds any configuration specified on the command line
+	 * @param name contains the name of the job itself
+	 * @param mapper identified which mapper class to use
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param output is the fully qualified path to where the generated data should reside
+	 * @param previous is the fully qualified path to the output of an earlier run whose sketches are merged in, or null
+	 * @throws IOException
+	 */
+	private static void generate(Configuration base, String name, Class mapper, String input, String output, String previous) throws IOException {
+		JobConf conf = new JobConf(base, SanFranciscoCrimeDistinct.class);
+		conf.setJobName(name);
+		conf.setMapOutputKeyClass(Text.class);
+		conf.setMapOutputValueClass(HyperLogLog.class);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(Text.class);
+		conf.setMapperClass(mapper);
+		conf.setCombinerClass(Combine.class);
+		conf.setReducerClass(ReduceToCardinality.class);
+		conf.setInputFormat(CrimeInputFormat.class);
+		conf.setOutputFormat(TextOutputFormat.class);
+		MultipleOutputs.addNamedOutput(conf, SKETCH_OUTPUT, SequenceFileOutputFormat.class, Text.class, HyperLogLog.class);
+		if (previous == null) {
+			FileInputFormat.setInputPaths(conf, new Path(input));
+		} else {
+			FileStatus[] sketches = new Path(previous).getFileSystem(conf).globStatus(new Path(previous, SKETCH_OUTPUT + "-*"));
+			if (sketches == null || sketches.length == 0) {
+				throw new IOException(MessageFormat.format("{0} holds no {1} to merge", new Object[]{previous, SKETCH_OUTPUT}));
+			}
+			// the stored sketches go straight to the combiners and reducers
+			MultipleInputs.addInputPath(conf, new Path(input), CrimeInputFormat.class, mapper);
+			for (FileStatus sketch : sketches) {
+				MultipleInputs.addInputPath(conf, sketch.getPath(), SequenceFileInputFormat.class, IdentityMapper.class);
+			}
+		}
+		FileOutputFormat.setOutputPath(conf, new Path(output));
+		JobClient.runJob(conf);
+	}
+
+	/**
+	 * enforce proper CLI usage then drive the overall process
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] remaining = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (remaining.length == 3 || remaining.length == 5) {
+			CrimeInputFormat.clearPreview(conf, "distinct counts");
+			generate(conf, "distinct-category-vs-week", CategoryMapByWeek.class, remaining[0], remaining[1], remaining.length == 5 ? remaining[3] : null);
+			generate(conf, "distinct-district-vs-week", DistrictMapByWeek.class, remaining[0], remaining[2], remaining.length == 5 ? remaining[4] : null);
+		} else {
+			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrimeDistinct [-D sfcrime.distinct.precision=12] [-D sfcrime.distinct.maxbytes=" + DEFAULT_MAX_BYTES + "] path/to/input/directory path/to/category/report path/to/district/report [path/to/earlier/category/report path/to/earlier/district/report]");
+		}
+	}
+
+}
@@ -0,0 +1,347 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.LongSumReducer;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * map/reduce job responsible for counting crimes per grid cell of the city per time bucket
+ *
+ * each incident is binned by its longitude (X) and latitude (Y) into a square cell of a fixed grid
+ * whose origin is south west of the city, the cell and time bucket are packed into a single long key,
+ * incidents outside of the extent of the city are counted and dropped, time buckets of whole weeks start on the
+ * first day of the week like the weeks of the SanFranciscoCrime reports
+ * @author glenn
+ */
+public class SanFranciscoCrimeHeatmap extends MapReduceJobBase {
+
+	private static Logger log = Logger.getLogger(SanFranciscoCrimeHeatmap.class.getCanonicalName());
+
+	/**
+	 * configuration property that holds the width and height of a grid cell in millionths of a degree
+	 */
+	public static final String CELL_SIZE_PROPERTY = "sfcrime.grid.cellsize";
+
+	/**
+	 * configuration property that holds the number of days in a time bucket
+	 */
+	public static final String BUCKET_DAYS_PROPERTY = "sfcrime.grid.bucketdays";
+
+	/**
+	 * configuration property that holds the southern edge, in decimal degrees, of the area to be binned
+	 */
+	public static final String MIN_LATITUDE_PROPERTY = "sfcrime.grid.minlatitude";
+
+	/**
+	 * configuration property that holds the northern edge, in decimal degrees, of the area to be binned
+	 */
+	public static final String MAX_LATITUDE_PROPERTY = "sfcrime.grid.maxlatitude";
+
+	/**
+	 * configuration property that holds the western edge, in decimal degrees, of the area to be binned
+	 */
+	public static final String MIN_LONGITUDE_PROPERTY = "sfcrime.grid.minlongitude";
+
+	/**
+	 * configuration property that holds the eastern edge, in decimal degrees, of the area to be binned
+	 */
+	public static final String MAX_LONGITUDE_PROPERTY = "sfcrime.grid.maxlongitude";
+
+	/**
+	 * default extent of the city, incidents outside of it, such as the placeholder at -120.5,90, are not binned
+	 */
+	public static final String DEFAULT_MIN_LATITUDE = "37.70";
+
+	public static final String DEFAULT_MAX_LATITUDE = "37.84";
+
+	public static final String DEFAULT_MIN_LONGITUDE = "-122.52";
+
+	public static final String DEFAULT_MAX_LONGITUDE = "-122.35";
+
+	/**
+	 * default cell size of 0.001 degrees or roughly 100 meters
+	 */
+	public static final int DEFAULT_CELL_SIZE = 1000;
+
+	/**
+	 * default time bucket of one week
+	 */
+	public static final int DEFAULT_BUCKET_DAYS = 7;
+
+	/**
+	 * longitude of the grid origin in millionths of a degree
+	 */
+	private static final long ORIGIN_LONGITUDE = -123000000l;
+
+	/**
+	 * latitude of the grid origin in millionths of a degree
+	 */
+	private static final long ORIGIN_LATITUDE = 37000000l;
+
+	/**
+	 * number of bits used for each of the row and column in the packed key
+	 */
+	private static final int CELL_BITS = 20;
+
+	private static final long CELL_MASK = (1l << CELL_BITS) - 1l;
+
+	/**
+	 * convert a coordinate from the sf crime data into millionths of a degree
+	 * @param value is the coordinate in decimal degrees
+	 * @return the coordinate in millionths of a degree
+	 */
+	private static long toMicrodegrees(String value) {
+		return new BigDecimal(value.trim()).movePointRight(6).setScale(0, RoundingMode.HALF_UP).longValue();
+	}
+
+	/**
+	 * convert millionths of a degree back into decimal degrees for output
+	 * @param value is the coordinate in millionths of a degree
+	 * @return the coordinate in decimal degrees
+	 */
+	private static String fromMicrodegrees(long value) {
+		return BigDecimal.valueOf(value, 6).toPlainString();
+	}
+
+	/**
+	 * @param job holds the configuration
+	 * @param name is the configuration property
+	 * @param defaultValue is used when the property is not set
+	 * @return the value of the property
+	 * @throws IllegalArgumentException when the value is not positive
+	 */
+	private static int getPositive(JobConf job, String name, int defaultValue) {
+		int retVal = job.getInt(name, defaultValue);
+		if (retVal <= 0) {
+			throw new IllegalArgumentException(MessageFormat.format("{0} must be greater than zero but was {1,number,#}", new Object[]{name, retVal}));
+		}
+		return retVal;
+	}
+
+	/**
+	 * read the extent of the area to be binned
+	 * @param job holds the configuration
+	 * @return the minimum latitude, maximum latitude, minimum longitude and maximum longitude in millionths of a degree
+	 * @throws IllegalArgumentException when the extent is empty or does not fit in the grid
+	 */
+	private static long[] getExtent(JobConf job) {
+		long[] retVal = new long[]{
+			toMicrodegrees(job.get(MIN_LATITUDE_PROPERTY, DEFAULT_MIN_LATITUDE)),
+			toMicrodegrees(job.get(MAX_LATITUDE_PROPERTY, DEFAULT_MAX_LATITUDE)),
+			toMicrodegrees(job.get(MIN_LONGITUDE_PROPERTY, DEFAULT_MIN_LONGITUDE)),
+			toMicrodegrees(job.get(MAX_LONGITUDE_PROPERTY, DEFAULT_MAX_LONGITUDE))
+		};
+		long cellSize = getPositive(job, CELL_SIZE_PROPERTY, DEFAULT_CELL_SIZE);
+		if (retVal[0] > retVal[1] || retVal[2] > retVal[3]
+				|| retVal[0] < ORIGIN_LATITUDE || (retVal[1] - ORIGIN_LATITUDE) / cellSize > CELL_MASK
+				|| retVal[2] < ORIGIN_LONGITUDE || (retVal[3] - ORIGIN_LONGITUDE) / cellSize > CELL_MASK) {
+			throw new IllegalArgumentException("The extent of the grid is empty or lies outside of what the packed key can hold.");
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param bucketDays is the number of days in a time bucket
+	 * @return days to add to the epoch day so that buckets of whole weeks start on the first day of the week rather
+	 * than on the thursday that 1970/01/01 was, zero for any other bucket size
+	 */
+	private static int getBucketOffset(int bucketDays) {
+		int retVal = 0;
+		if (bucketDays % 7 == 0) {
+			retVal = (Calendar.THURSDAY - Calendar.getInstance().getFirstDayOfWeek() + 7) % 7;
+		}
+		return retVal;
+	}
+
+	/**
+	 * pack the time bucket and grid cell into one key so that the shuffle sorts and groups on a single long
+	 * @param bucket is the time bucket
+	 * @param row is the zero based grid row (latitude)
+	 * @param col is the zero based grid column (longitude)
+	 * @return the packed key
+	 */
+	private static long pack(int bucket, long row, long col) {
+		return ((long)bucket << (2 * CELL_BITS)) | (row << CELL_BITS) | col;
+	}
+
+	/**
+	 * maps each incident to the packed key of its time bucket and grid cell
+	 * @author glenn
+	 */
+	public static class GridMap extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, LongWritable, LongWritable> {
+
+		private static final LongWritable one = new LongWritable(1l);
+
+		private final LongWritable cell = new LongWritable();
+
+		private long cellSize = DEFAULT_CELL_SIZE;
+
+		private int bucketDays = DEFAULT_BUCKET_DAYS;
+
+		private int bucketOffset = 0;
+
+		private long[] extent = null;
+
+		@Override
+		public void configure(JobConf job) {
+			cellSize = getPositive(job, CELL_SIZE_PROPERTY, DEFAULT_CELL_SIZE);
+			bucketDays = getPositive(job, BUCKET_DAYS_PROPERTY, DEFAULT_BUCKET_DAYS);
+			bucketOffset = getBucketOffset(bucketDays);
+			extent = getExtent(job);
+		}
+
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<LongWritable, LongWritable> output, Reporter reporter) throws IOException {
+			String x = value.get(X_COLUMN_INDEX);
+			String y = value.get(Y_COLUMN_INDEX);
+			try {
+				if (x != null && y != null) {
+					long latitude = toMicrodegrees(y);
+					long longitude = toMicrodegrees(x);
+					// the extent lies within the grid so any incident inside of it has a valid row and column
+					if (latitude >= extent[0] && latitude <= extent[1] && longitude >= extent[2] && longitude <= extent[3]) {
+						long row = (latitude - ORIGIN_LATITUDE) / cellSize;
+						long column = (longitude - ORIGIN_LONGITUDE) / cellSize;
+						int bucket = (getEpochDay(getDate(value.get(DATE_COLUMN_INDEX))) + bucketOffset) / bucketDays;
+						cell.set(pack(bucket, row, column));
+						output.collect(cell, one);
+					} else {
+						reporter.incrCounter("heatmap", "outside city", 1l);
+					}
+				} else {
+					reporter.incrCounter("heatmap", "no coordinates", 1l);
+				}
+			} catch (NumberFormatException nfe) {
+				log.log(Level.WARNING, MessageFormat.format("Expected {0},{1} to be numeric coordinates.\n", new Object[]{x, y}), nfe);
+			} catch (ParseException e) {
+				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{value.get(DATE_COLUMN_INDEX)}), e);
+			}
+		}
+
+	}
+
+	/**
+	 * totals the crimes in each cell and unpacks the key into the first day of the time bucket, the cell and its south west corner
+	 * @author glenn
+	 */
+	public static class ReduceByCell extends MapReduceBase implements Reducer<LongWritable, LongWritable, Text, Text> {
+
+		private long cellSize = DEFAULT_CELL_SIZE;
+
+		private int bucketDays = DEFAULT_BUCKET_DAYS;
+
+		private int bucketOffset = 0;
+
+		@Override
+		public void configure(JobConf job) {
+			cellSize = getPositive(job, CELL_SIZE_PROPERTY, DEFAULT_CELL_SIZE);
+			bucketDays = getPositive(job, BUCKET_DAYS_PROPERTY, DEFAULT_BUCKET_DAYS);
+			bucketOffset = getBucketOffset(bucketDays);
+		}
+
+		public void reduce(LongWritable key, Iterator<LongWritable> values, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+			long crimes = 0l;
+			while (values.hasNext()) {
+				crimes += values.next().get();
+			}
+			long packed = key.get();
+			int bucket = (int)(packed >>> (2 * CELL_BITS));
+			long row = (packed >>> CELL_BITS) & CELL_MASK;
+			long column = packed & CELL_MASK;
+			StringBuffer sv = new StringBuffer();
+			sv.append(row);
+			sv.append(",");
+			sv.append(column);
+			sv.append(",");
+			sv.append(fromMicrodegrees(ORIGIN_LATITUDE + (row * cellSize)));
+			sv.append(",");
+			sv.append(fromMicrodegrees(ORIGIN_LONGITUDE + (column * cellSize)));
+			sv.append(",");
+			sv.append(crimes);
+			output.collect(new Text(outputDateFormat.format(getDate(bucket * bucketDays - bucketOffset))), new Text(sv.toString()));
+		}
+
+	}
+
+	/**
+	 * sets up and runs the hadoop map/reduce job itself
+	 * @param base holds any configuration specified on the command line
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param output is the fully qualified path to where the generated data should reside
+	 * @throws IOException
+	 */
+	private static void generate(Configuration base, String input, String output) throws IOException {
+		JobConf conf = new JobConf(base, SanFranciscoCrimeHeatmap.class);
+		conf.setJobName("grid-heatmap");
+		// fail here rather than in every task
+		getPositive(conf, BUCKET_DAYS_PROPERTY, DEFAULT_BUCKET_DAYS);
+		getExtent(conf);
+		conf.setMapOutputKeyClass(LongWritable.class);
+		conf.setMapOutputValueClass(LongWritable.class);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(Text.class);
+		conf.setMapperClass(GridMap.class);
+		conf.setCombinerClass(LongSumReducer.class);
+		conf.setReducerClass(ReduceByCell.class);
+		conf.setInputFormat(CrimeInputFormat.class);
+		conf.setOutputFormat(TextOutputFormat.class);
+		FileInputFormat.setInputPaths(conf, new Path(input));
+		FileOutputFormat.setOutputPath(conf, new Path(output));
+		JobClient.runJob(conf);
+	}
+
+	/**
+	 * enforce proper CLI usage then drive the overall process
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] remaining = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (remaining.length == 2) {
+			CrimeInputFormat.clearPreview(conf, "the heatmap");
+			generate(conf, remaining[0], remaining[1]);
+		} else {
+			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrimeHeatmap [-D sfcrime.grid.cellsize=1000] [-D sfcrime.grid.bucketdays=7] [-D sfcrime.grid.minlatitude=" + DEFAULT_MIN_LATITUDE + "] [-D sfcrime.grid.maxlatitude=" + DEFAULT_MAX_LATITUDE + "] [-D sfcrime.grid.minlongitude=" + DEFAULT_MIN_LONGITUDE + "] [-D sfcrime.grid.maxlongitude=" + DEFAULT_MAX_LONGITUDE + "] path/to/input/directory path/to/heatmap/data");
+		}
+	}
+
+}
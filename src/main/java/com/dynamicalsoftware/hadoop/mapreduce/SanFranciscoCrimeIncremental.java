@@ -0,0 +1,445 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.lib.MultipleSequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * incremental version of the SanFranciscoCrime weekly reports and the SanFranciscoCrimePrepOlap star data
+ *
+ * the weekly totals of each category and district, plus the daily count of each district and category cell,
+ * are kept per input file in a state directory under a fingerprint of the file's path, length and modification
+ * time. Only the files without partials are read, then the partials of every current file are merged into
+ * the usual outputs, so a run costs about as much as the new data plus the merge of the compact partials.
+ * @author glenn
+ */
+public class SanFranciscoCrimeIncremental extends MapReduceJobBase {
+
+	private static Logger log = Logger.getLogger(SanFranciscoCrimeIncremental.class.getCanonicalName());
+
+	/**
+	 * partials of the weekly totals by category
+	 */
+	public static final String CATEGORY_PARTIAL = "category";
+
+	/**
+	 * partials of the weekly totals by district
+	 */
+	public static final String DISTRICT_PARTIAL = "district";
+
+	/**
+	 * partials of the daily totals by district and category, the buckets are days since 1970/01/01 rather than weeks
+	 */
+	public static final String CELL_PARTIAL = "cells";
+
+	/**
+	 * how many records were read from the file, so that the driver can tell a file without any crimes from one whose
+	 * partials went missing
+	 */
+	public static final String READ_PARTIAL = "read";
+
+	/**
+	 * configuration property that holds the fingerprint of each file to be read as taken when the input was listed,
+	 * one fingerprint and qualified path separated by a tab per line
+	 */
+	public static final String FINGERPRINTS_PROPERTY = "sfcrime.incremental.fingerprints";
+
+	/**
+	 * group of the counters of the partial job
+	 */
+	private static final String COUNTER_GROUP = "incremental";
+
+	private static final String RECORDS_READ_COUNTER = "records read";
+
+	/**
+	 * separates the fingerprint, the kind of partial and the key in the intermediate output
+	 */
+	private static final String SEPARATOR = "\t";
+
+	/**
+	 * where, within the state directory, the partials of the files being processed are written
+	 */
+	private static final String WORK_DIRECTORY = "_new";
+
+	/**
+	 * @param fs is the file system of the file
+	 * @param file describes an input file
+	 * @return hex digest of the qualified path, length and modification time of the file, so that files of the same
+	 * name in different directories get different partials
+	 */
+	public static String getFingerprint(FileSystem fs, FileStatus file) {
+		return MD5Hash.digest(fs.makeQualified(file.getPath()) + SEPARATOR + file.getLen() + SEPARATOR + file.getModificationTime()).toString();
+	}
+
+	/**
+	 * counts each crime into the partials of the file that it came from, under the fingerprint that the driver took
+	 * when it listed the file so that the partials are found even if the file has changed since
+	 * @author glenn
+	 */
+	public static class PartialMap extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, Text, WeekCounts> {
+
+		private String fingerprint = null;
+
+		private final Text tk = new Text();
+
+		private final WeekCounts tv = new WeekCounts();
+
+		/**
+		 * records read by this task, written under the fingerprint when the task closes
+		 */
+		private long records = 0l;
+
+		private OutputCollector<Text, WeekCounts> output = null;
+
+		@Override
+		public void configure(JobConf job) {
+			try {
+				Path p = new Path(job.get("map.input.file"));
+				String file = p.getFileSystem(job).makeQualified(p).toString();
+				for (String entry : job.get(FINGERPRINTS_PROPERTY, "").split("\n")) {
+					String[] ep = entry.split(SEPARATOR, 2);
+					if (ep.length == 2 && ep[1].equals(file)) {
+						fingerprint = ep[0];
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot qualify the input file.", e);
+			}
+			if (fingerprint == null) {
+				throw new RuntimeException(MessageFormat.format("{0} was not listed when the job was set up.", new Object[]{job.get("map.input.file")}));
+			}
+		}
+
+		private void collect(String kind, String key, int bucket, OutputCollector<Text, WeekCounts> output) throws IOException {
+			tk.set(fingerprint + SEPARATOR + kind + SEPARATOR + key);
+			tv.clear();
+			tv.add(bucket, 1l);
+			output.collect(tk, tv);
+		}
+
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<Text, WeekCounts> output, Reporter reporter) throws IOException {
+			this.output = output;
+			records++;
+			reporter.incrCounter(COUNTER_GROUP, RECORDS_READ_COUNTER, 1l);
+			try {
+				Date d = getDate(value.get(DATE_COLUMN_INDEX));
+				int week = SanFranciscoCrime.getWeekBucket(d);
+				collect(CATEGORY_PARTIAL, value.get(CATEGORY_COLUMN_INDEX), week, output);
+				collect(DISTRICT_PARTIAL, value.get(DISTRICT_COLUMN_INDEX), week, output);
+				collect(CELL_PARTIAL, value.get(DISTRICT_COLUMN_INDEX) + SEPARATOR + value.get(CATEGORY_COLUMN_INDEX), getEpochDay(d), output);
+			} catch (ParseException e) {
+				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{value.get(DATE_COLUMN_INDEX)}), e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (records > 0l) {
+				tk.set(fingerprint + SEPARATOR + READ_PARTIAL + SEPARATOR + READ_PARTIAL);
+				tv.clear();
+				tv.add(0, records);
+				output.collect(tk, tv);
+			}
+		}
+
+	}
+
+	/**
+	 * writes each partial into fingerprint/kind under the output directory, without the fingerprint and kind in its key
+	 * @author glenn
+	 */
+	public static class PartialOutputFormat extends MultipleSequenceFileOutputFormat<Text, WeekCounts> {
+
+		@Override
+		protected String generateFileNameForKeyValue(Text key, WeekCounts value, String name) {
+			String[] kp = key.toString().split(SEPARATOR, 3);
+			return kp[0] + "/" + kp[1] + "/" + name;
+		}
+
+		@Override
+		protected Text generateActualKey(Text key, WeekCounts value) {
+			return new Text(key.toString().split(SEPARATOR, 3)[2]);
+		}
+
+	}
+
+	/**
+	 * turns the daily totals of a district and category cell back into the intermediate format of SanFranciscoCrimePrepOlap
+	 * @author glenn
+	 */
+	public static class CellMap extends MapReduceBase implements Mapper<Text, WeekCounts, Text, Text> {
+
+		private final Text tk = new Text();
+
+		private final Text tv = new Text();
+
+		public void map(Text key, WeekCounts value, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+			String[] kp = key.toString().split(SEPARATOR);
+			for (java.util.Map.Entry<Integer, Long> day : value.getCounts().entrySet()) {
+				tk.set(outputDateFormat.format(getDate(day.getKey())));
+				tv.set("\"" + kp[0] + "\",\"" + kp[1] + "\"," + day.getValue());
+				output.collect(tk, tv);
+			}
+		}
+
+	}
+
+	/**
+	 * @param fs is the file system of the input
+	 * @param input is the input directory, a single file or a glob of either
+	 * @return the input files, skipping the hidden ones
+	 * @throws IOException
+	 */
+	private static List<FileStatus> getInputFiles(FileSystem fs, Path input) throws IOException {
+		List<FileStatus> retVal = new ArrayList<FileStatus>();
+		FileStatus[] matches = fs.globStatus(input);
+		if (matches != null) {
+			for (FileStatus match : matches) {
+				FileStatus[] files = match.isDir() ? fs.listStatus(match.getPath()) : new FileStatus[]{match};
+				for (FileStatus file : files) {
+					String name = file.getPath().getName();
+					if (!file.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+						retVal.add(file);
+					}
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param fs is the file system of the partials
+	 * @param written is the directory of partials that the partial job wrote for one file
+	 * @param conf holds the configuration
+	 * @return how many records the partial job read from the file
+	 * @throws IOException
+	 */
+	private static long getRecordsRead(FileSystem fs, Path written, Configuration conf) throws IOException {
+		long retVal = 0l;
+		Path read = new Path(written, READ_PARTIAL);
+		if (fs.exists(read)) {
+			Text key = new Text();
+			WeekCounts value = new WeekCounts();
+			for (FileStatus part : fs.listStatus(read)) {
+				SequenceFile.Reader reader = new SequenceFile.Reader(fs, part.getPath(), conf);
+				try {
+					while (reader.next(key, value)) {
+						for (long records : value.getCounts().values()) {
+							retVal += records;
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * read the input files that do not yet have partials into the state directory, and drop the partials of
+	 * files that have since changed or gone away
+	 * @param base holds any configuration specified on the command line
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param state is the fully qualified path to the directory of partials
+	 * @return the partial directories of every current input file in fingerprint order
+	 * @throws IOException
+	 */
+	private static List<Path> updatePartials(Configuration base, String input, String state) throws IOException {
+		Path statePath = new Path(state);
+		FileSystem fs = statePath.getFileSystem(base);
+		java.util.Map<String, Path> current = new TreeMap<String, Path>();
+		Path inputPath = new Path(input);
+		FileSystem inputFs = inputPath.getFileSystem(base);
+		for (FileStatus file : getInputFiles(inputFs, inputPath)) {
+			current.put(getFingerprint(inputFs, file), inputFs.makeQualified(file.getPath()));
+		}
+		if (fs.exists(statePath)) {
+			for (FileStatus partial : fs.listStatus(statePath)) {
+				String fingerprint = partial.getPath().getName();
+				if (!current.containsKey(fingerprint) && !fingerprint.startsWith("_")) {
+					log.info(MessageFormat.format("dropping the partials {0} of a changed or removed input file", new Object[]{fingerprint}));
+					fs.delete(partial.getPath(), true);
+				}
+			}
+		}
+		List<Path> fresh = new ArrayList<Path>();
+		StringBuffer fingerprints = new StringBuffer();
+		for (String fingerprint : current.keySet()) {
+			if (!fs.exists(new Path(statePath, fingerprint))) {
+				fresh.add(current.get(fingerprint));
+				fingerprints.append(fingerprint);
+				fingerprints.append(SEPARATOR);
+				fingerprints.append(current.get(fingerprint));
+				fingerprints.append("\n");
+			}
+		}
+		log.info(MessageFormat.format("{0,number,#} of {1,number,#} input files are new or changed", new Object[]{fresh.size(), current.size()}));
+		if (fresh.size() > 0) {
+			Path work = new Path(statePath, WORK_DIRECTORY);
+			fs.delete(work, true);
+			JobConf conf = new JobConf(base, SanFranciscoCrimeIncremental.class);
+			conf.setJobName("incremental-partials");
+			// the tasks must write under the fingerprints taken here, not ones taken again after a file may have changed
+			conf.set(FINGERPRINTS_PROPERTY, fingerprints.toString());
+			FileInputFormat.setInputPaths(conf, fresh.toArray(new Path[fresh.size()]));
+			JobPlanner.plan(conf, CATEGORY_COLUMN_INDEX);
+			conf.setOutputKeyClass(Text.class);
+			conf.setOutputValueClass(WeekCounts.class);
+			conf.setMapperClass(PartialMap.class);
+			conf.setCombinerClass(SanFranciscoCrimeSkew.MergeCombine.class);
+			conf.setReducerClass(SanFranciscoCrimeSkew.MergeCombine.class);
+			conf.setInputFormat(CrimeInputFormat.class);
+			conf.setOutputFormat(PartialOutputFormat.class);
+			FileOutputFormat.setOutputPath(conf, work);
+			RunningJob job = JobClient.runJob(conf);
+			// every record read must be accounted for under the fingerprint of a file, otherwise a file that was read
+			// would look as if it had no crimes and get empty partials that are never recomputed
+			long read = job.getCounters().getGroup(COUNTER_GROUP).getCounter(RECORDS_READ_COUNTER);
+			long written = 0l;
+			for (String fingerprint : current.keySet()) {
+				if (!fs.exists(new Path(statePath, fingerprint))) {
+					written += getRecordsRead(fs, new Path(work, fingerprint), conf);
+				}
+			}
+			if (written != read) {
+				throw new IOException(MessageFormat.format("{0,number,#} records were read but only {1,number,#} were written under the fingerprints of the new or changed files, keeping the partials of the last run", new Object[]{read, written}));
+			}
+			for (String fingerprint : current.keySet()) {
+				Path partial = new Path(statePath, fingerprint);
+				if (!fs.exists(partial)) {
+					Path output = new Path(work, fingerprint);
+					if (fs.exists(output)) {
+						fs.rename(output, partial);
+					} else {
+						// no records were read from it so a file without any crimes still gets its (empty) partials to not be read again
+						fs.mkdirs(partial);
+					}
+				}
+			}
+			fs.delete(work, true);
+		}
+		List<Path> retVal = new ArrayList<Path>();
+		for (String fingerprint : current.keySet()) {
+			retVal.add(new Path(statePath, fingerprint));
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param conf holds the configuration
+	 * @param partials are the partial directories of every current input file
+	 * @param kind is which of the partials to list
+	 * @return the directories of that kind of partial that exist
+	 * @throws IOException
+	 */
+	private static Path[] getPartials(Configuration conf, List<Path> partials, String kind) throws IOException {
+		List<Path> retVal = new ArrayList<Path>();
+		for (Path partial : partials) {
+			Path p = new Path(partial, kind);
+			if (p.getFileSystem(conf).exists(p)) {
+				retVal.add(p);
+			}
+		}
+		return retVal.toArray(new Path[retVal.size()]);
+	}
+
+	/**
+	 * sets up and runs the partial job, if any input file is new or changed, then the merge jobs
+	 * @param base holds any configuration specified on the command line
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param state is the fully qualified path to the directory of partials that is kept from run to run
+	 * @param categoryReport is the fully qualified path to where the category report should reside
+	 * @param districtReport is the fully qualified path to where the district report should reside
+	 * @param star is the fully qualified path to where the star data should reside or null to skip it
+	 * @throws IOException
+	 */
+	public static void generate(Configuration base, String input, String state, String categoryReport, String districtReport, String star) throws IOException {
+		List<Path> partials = updatePartials(base, input, state);
+		Path[] categories = getPartials(base, partials, CATEGORY_PARTIAL);
+		if (categories.length == 0) {
+			log.warning("there are no crimes in the input, nothing to merge");
+			return;
+		}
+		SanFranciscoCrimeSkew.merge(base, "category-vs-week", categories, categoryReport);
+		SanFranciscoCrimeSkew.merge(base, "district-vs-week", getPartials(base, partials, DISTRICT_PARTIAL), districtReport);
+		if (star != null) {
+			JobConf conf = new JobConf(base, SanFranciscoCrimeIncremental.class);
+			conf.setJobName("daily-activity");
+			SanFranciscoCrimePrepOlap.setup(conf, categoryReport, districtReport);
+			conf.setMapOutputKeyClass(Text.class);
+			conf.setMapOutputValueClass(Text.class);
+			conf.setOutputKeyClass(Text.class);
+			conf.setOutputValueClass(Text.class);
+			conf.setMapperClass(CellMap.class);
+			conf.setReducerClass(SanFranciscoCrimePrepOlap.Reduce.class);
+			conf.setInputFormat(SequenceFileInputFormat.class);
+			conf.setOutputFormat(SanFranciscoCrimePrepOlap.PartitionedOutputFormat.class);
+			FileInputFormat.setInputPaths(conf, getPartials(base, partials, CELL_PARTIAL));
+			FileOutputFormat.setOutputPath(conf, new Path(star));
+			JobClient.runJob(conf);
+			SanFranciscoCrimePrepOlap.mergeManifests(conf, FileOutputFormat.getOutputPath(conf));
+		}
+	}
+
+	/**
+	 * enforce proper CLI usage then drive the overall process
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (args.length == 4 || args.length == 5) {
+			// the partials are kept so they must never be built from a sample
+			CrimeInputFormat.clearPreview(conf, "incremental runs");
+			generate(conf, args[0], args[1], args[2], args[3], args.length == 5 ? args[4] : null);
+		} else {
+			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrimeIncremental [-D sfcrime.plan.reducers=n] [-D sfcrime.plan.minsplitsize=bytes] path/to/input/directory path/to/state/directory path/to/category/report path/to/district/report [path/to/star/data]");
+		}
+	}
+
+}
@@ -16,9 +16,13 @@ package com.dynamicalsoftware.hadoop.mapreduce;
    limitations under the License.
 */
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.text.ParseException;
 import java.text.MessageFormat;
+import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -27,7 +31,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
@@ -40,13 +48,18 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.mapred.TextInputFormat;
-import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleTextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.ReflectionUtils;
 
 import com.dynamicalsoftware.util.DataFile;
+import com.dynamicalsoftware.util.PartitionManifest;
 
 /**
  * map/reduce job responsible for generating the data used to load time period and fact tables in the OLAP db
+ *
+ * the output is partitioned into year=yyyy/month=MM directories, each with a manifest of the row count and
+ * checksum of its part files, so that the loader can read only the months that it needs
  * @author glenn
  */
 public class SanFranciscoCrimePrepOlap extends MapReduceJobBase {
@@ -54,30 +67,20 @@ public class SanFranciscoCrimePrepOlap extends MapReduceJobBase {
 	private static Logger log = Logger.getLogger(SanFranciscoCrimePrepOlap.class.getCanonicalName());
 
 	/**
-	 * list of all categories found in the input data
+	 * configuration property that holds all categories found in the input data, one per line, as listed in the category report
 	 */
-	private static List<String> categories = null;
-	
-	/**
-	 * list of all districts found in the input data
-	 */
-	private static List<String> districts = null;
-	
-	/**
-	 * maps category name to index od
-	 */
-	private static final java.util.Map<String, Integer> categoryLookup = new HashMap<String, Integer>();
-	
+	public static final String CATEGORIES_PROPERTY = "sfcrime.olap.categories";
+
 	/**
-	 * maps district name to index id
+	 * configuration property that holds all districts found in the input data, one per line, as listed in the district report
 	 */
-	private static final java.util.Map<String, Integer> districtLookup = new HashMap<String, Integer>();	
+	public static final String DISTRICTS_PROPERTY = "sfcrime.olap.districts";
 	
 	/**
 	 * base class for any OLAP related mappers
 	 * @author glenn
 	 */
-	public static abstract class Map extends MapReduceBase implements Mapper<LongWritable, Text, Text, Text> {
+	public static abstract class Map extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, Text, Text> {
 
 		protected int keyID = 0;
 		protected int valueID = 0;
@@ -94,37 +97,23 @@ public class SanFranciscoCrimePrepOlap extends MapReduceJobBase {
 		/**
 		 * extracts out the key and two values to be collecting into the intermediate data
 		 */
-		public void map(LongWritable key, Text value, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
-			String line = value.toString();
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
 			try {
-				String[] col = DataFile.getColumns(line);
-				if (col != null) {
-					if (col.length >= (DISTRICT_COLUMN_INDEX + 1)) {
-						Text tk = new Text();
-						tk.set(formatKey(col[keyID]));
-						Text tv = new Text();
-						StringBuffer sv = new StringBuffer();
-						sv.append("\"");
-						sv.append(col[valueID]);
-						sv.append("\"");
-						sv.append(",");
-						sv.append("\"");
-						sv.append(col[value2ID]);
-						sv.append("\"");
-						tv.set(sv.toString());
-						output.collect(tk, tv);
-					} else {
-						log.warning(MessageFormat.format("Data {0} did not parse into columns.", new Object[]{line}));
-					}
-				} else {
-					log.warning(MessageFormat.format("Data {0} did not parse into columns.", new Object[]{line}));
-				}
-			} catch (NumberFormatException nfe) {
-				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a number.\n", new Object[]{line}), nfe);
-			} catch (IOException e) {
-				log.log(Level.WARNING, MessageFormat.format("Cannot parse {0} into columns.\n", new Object[]{line}), e);
+				Text tk = new Text();
+				tk.set(formatKey(value.get(keyID)));
+				Text tv = new Text();
+				StringBuffer sv = new StringBuffer();
+				sv.append("\"");
+				sv.append(value.get(valueID));
+				sv.append("\"");
+				sv.append(",");
+				sv.append("\"");
+				sv.append(value.get(value2ID));
+				sv.append("\"");
+				tv.set(sv.toString());
+				output.collect(tk, tv);
 			} catch (ParseException e) {
-				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{line}), e);
+				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{value.get(keyID)}), e);
 			}
 			
 		}
@@ -148,14 +137,103 @@ public class SanFranciscoCrimePrepOlap extends MapReduceJobBase {
 		}
 	}
 	
+	/**
+	 * writes each day into the year=yyyy/month=MM directory of its month
+	 * @author glenn
+	 */
+	public static class PartitionedOutputFormat extends MultipleTextOutputFormat<Text, Text> {
+
+		@Override
+		protected String generateFileNameForKeyValue(Text key, Text value, String name) {
+			return DataFile.getPartition(key.toString()) + "/" + name;
+		}
+
+	}
+
 	/**
 	 * responsible for generating the report output based on the intermediate output from the mappers
+	 *
+	 * every line is also counted and checksummed, exactly as the output format writes it, into the manifest
+	 * of its partition which is written next to the part file when the reducer is done
 	 * @author glenn
 	 */
 	public static class Reduce extends MapReduceBase implements Reducer<Text, Text, Text, Text> {
 
+		private static final byte[] SEPARATOR = "\t".getBytes();
+
+		private static final byte[] NEWLINE = "\n".getBytes();
+
+		private JobConf job = null;
+
+		/**
+		 * list of all categories found in the input data
+		 */
+		private List<String> categories = null;
+
 		/**
-		 * non zero counts of crimes by date of every combination of district and category
+		 * list of all districts found in the input data
+		 */
+		private List<String> districts = null;
+
+		/**
+		 * maps category name to index id
+		 */
+		private final java.util.Map<String, Integer> categoryLookup = new HashMap<String, Integer>();
+
+		/**
+		 * maps district name to index id
+		 */
+		private final java.util.Map<String, Integer> districtLookup = new HashMap<String, Integer>();
+
+		/**
+		 * partition mapped to the number of lines written to it
+		 */
+		private final java.util.Map<String, Long> rows = new HashMap<String, Long>();
+
+		/**
+		 * partition mapped to the checksum of the lines written to it
+		 */
+		private final java.util.Map<String, CRC32> checksums = new HashMap<String, CRC32>();
+
+		@Override
+		public void configure(JobConf job) {
+			this.job = job;
+			// the reports are read by the driver, which is not the same jvm as the reducer on a cluster
+			categories = getKeys(job, CATEGORIES_PROPERTY);
+			districts = getKeys(job, DISTRICTS_PROPERTY);
+			int i = 0;
+			for (String category : categories) {
+				categoryLookup.put(category, i++);
+			}
+			i = 0;
+			for (String district : districts) {
+				districtLookup.put(district, i++);
+			}
+		}
+
+		/**
+		 * count and checksum a line of output into the manifest of its partition
+		 * @param key is the day of the line
+		 * @param value is the rest of the line
+		 */
+		private void addToManifest(Text key, Text value) {
+			String partition = DataFile.getPartition(key.toString());
+			CRC32 crc = checksums.get(partition);
+			if (crc == null) {
+				crc = new CRC32();
+				checksums.put(partition, crc);
+				rows.put(partition, 0l);
+			}
+			crc.update(key.getBytes(), 0, key.getLength());
+			crc.update(SEPARATOR);
+			crc.update(value.getBytes(), 0, value.getLength());
+			crc.update(NEWLINE);
+			rows.put(partition, rows.get(partition) + 1l);
+		}
+
+		/**
+		 * non zero counts of crimes by date of every combination of district and category, each value is a
+		 * single crime as district and category or, when a third column is present, that many crimes
 		 * @author glenn
 		 */
 		public void reduce(Text key, Iterator<Text> values, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
@@ -170,12 +248,12 @@ public class SanFranciscoCrimePrepOlap extends MapReduceJobBase {
 			while (values.hasNext()) {
 				String crime = values.next().toString();
 				String[] cols = DataFile.getColumns(crime);
-				if (cols.length == 2) {
+				if (cols.length == 2 || cols.length == 3) {
 					if (categoryLookup.containsKey(cols[1])) {
 						if (districtLookup.containsKey(cols[0])) {
 							int cat = categoryLookup.get(cols[1]);
 							int dist = districtLookup.get(cols[0]);
-							crimes[cat][dist]++;
+							crimes[cat][dist] += cols.length == 3 ? Integer.parseInt(cols[2]) : 1;
 						} else {
 							log.warning(MessageFormat.format("District {0} not found.", new Object[]{cols[0]}));
 						}
@@ -199,51 +277,128 @@ public class SanFranciscoCrimePrepOlap extends MapReduceJobBase {
 						Text tv = new Text();
 						tv.set(sv.toString());
 						output.collect(key, tv);
+						addToManifest(key, tv);
 					}
 				}
 			}
 		}
+
+		/**
+		 * write the manifest of each partition this reducer wrote to as a side effect file, named after the part file,
+		 * so that it is committed, or discarded, along with the part file itself
+		 */
+		@Override
+		public void close() throws IOException {
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMinimumIntegerDigits(5);
+			nf.setGroupingUsed(false);
+			String part = "part-" + nf.format(job.getInt("mapred.task.partition", 0));
+			Path work = FileOutputFormat.getWorkOutputPath(job);
+			FileSystem fs = work.getFileSystem(job);
+			for (java.util.Map.Entry<String, CRC32> partition : checksums.entrySet()) {
+				PartitionManifest manifest = new PartitionManifest();
+				manifest.add(part, rows.get(partition.getKey()), partition.getValue().getValue());
+				PrintWriter pw = new PrintWriter(fs.create(new Path(work, partition.getKey() + "/" + PartitionManifest.MANIFEST + "-" + part)));
+				manifest.write(pw);
+				pw.close();
+			}
+		}
 	}
 	
 	/**
-	 * load the previously generated category and district reports in order to get the list of categories, districts, and their look up mappings
-	 * @param categoryReport contains the fully qualified path and file to the bycategory/part-00000 file generated by the SanFranciscoCrime job
-	 * @param districtReport contains the fully qualified path and file to the bydistrict/part-00000 file generated by the SanFranciscoCrime job
+	 * load the previously generated category and district reports into the job so that every reducer gets the list of categories and districts
+	 * @param conf is the job to set up
+	 * @param categoryReport contains the fully qualified path to the bycategory/part-00000 file, or the whole directory, generated by the SanFranciscoCrime job
+	 * @param districtReport contains the fully qualified path to the bydistrict/part-00000 file, or the whole directory, generated by the SanFranciscoCrime job
 	 * @throws IOException
 	 */
-	private static void  setup(String categoryReport, String districtReport) throws IOException {
-		categories = DataFile.extractKeys(categoryReport);
-		districts = DataFile.extractKeys(districtReport);
-		int i = 0;
-		for (String category : categories) {
-			categoryLookup.put(category, i++);
+	static void setup(JobConf conf, String categoryReport, String districtReport) throws IOException {
+		setKeys(conf, CATEGORIES_PROPERTY, DataFile.extractKeys(categoryReport));
+		setKeys(conf, DISTRICTS_PROPERTY, DataFile.extractKeys(districtReport));
+	}
+
+	private static void setKeys(JobConf conf, String property, List<String> keys) {
+		StringBuffer sv = new StringBuffer();
+		for (String key : keys) {
+			sv.append(key);
+			sv.append("\n");
+		}
+		conf.set(property, sv.toString());
+	}
+
+	/**
+	 * @param conf is the job that was set up
+	 * @param property is which list of keys to get
+	 * @return the keys in the order of the report
+	 */
+	private static List<String> getKeys(JobConf conf, String property) {
+		String keys = conf.get(property);
+		if (keys == null) {
+			throw new RuntimeException(MessageFormat.format("{0} was not set up from the reports.", new Object[]{property}));
 		}
-		i = 0;
-		for (String district : districts) {
-			districtLookup.put(district, i++);
+		List<String> retVal = new ArrayList<String>();
+		for (String key : keys.split("\n")) {
+			if (key.length() > 0) {
+				retVal.add(key);
+			}
 		}
+		return retVal;
 	}
 	
 	/**
-	 * sets up and runs the hadoop map/reduce job itself
+	 * combine the manifests that each reducer wrote into a partition into the single manifest of that partition
+	 * @param conf is the job that has just completed
+	 * @param output is the fully qualified path to the partitioned output of the job
+	 * @throws IOException
+	 */
+	static void mergeManifests(JobConf conf, Path output) throws IOException {
+		FileSystem fs = output.getFileSystem(conf);
+		FileStatus[] partitions = fs.globStatus(new Path(output, DataFile.YEAR_PARTITION + "*/" + DataFile.MONTH_PARTITION + "*"));
+		if (partitions != null) {
+			for (FileStatus partition : partitions) {
+				PartitionManifest manifest = new PartitionManifest();
+				FileStatus[] pieces = fs.globStatus(new Path(partition.getPath(), PartitionManifest.MANIFEST + "-*"));
+				for (FileStatus piece : pieces) {
+					BufferedReader br = new BufferedReader(new InputStreamReader(fs.open(piece.getPath())));
+					manifest.read(br);
+					br.close();
+				}
+				PrintWriter pw = new PrintWriter(fs.create(new Path(partition.getPath(), PartitionManifest.MANIFEST)));
+				manifest.write(pw);
+				pw.close();
+				for (FileStatus piece : pieces) {
+					fs.delete(piece.getPath(), false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * sets up, plans and runs the hadoop map/reduce job itself
+	 * @param base holds any configuration specified on the command line
 	 * @param name contains the name of the job itself
+	 * @param categoryReport contains the fully qualified path to the category report
+	 * @param districtReport contains the fully qualified path to the district report
 	 * @param mapper identified which mapper class to use
 	 * @param input is the fully qualified path to the raw crime data
-	 * @param output is the fully qualified path to where the generated data should reside
+	 * @param output is the fully qualified path to where the year=yyyy/month=MM partitions of the generated data should reside
 	 * @throws IOException
 	 */
-	private static void generate(String name, Class mapper, String input, String output) throws IOException {
-		JobConf conf = new JobConf(SanFranciscoCrimePrepOlap.class);
+	private static void generate(Configuration base, String name, String categoryReport, String districtReport, Class mapper, String input, String output) throws IOException {
+		JobConf conf = new JobConf(base, SanFranciscoCrimePrepOlap.class);
 		conf.setJobName(name);
+		setup(conf, categoryReport, districtReport);
+		FileInputFormat.setInputPaths(conf, new Path(input));
+		JobPlanner.plan(conf, ((Map)ReflectionUtils.newInstance(mapper, conf)).keyID);
 		conf.setOutputKeyClass(Text.class);
 		conf.setOutputValueClass(Text.class);
 		conf.setMapperClass(mapper);
 		conf.setReducerClass(Reduce.class);
-		conf.setInputFormat(TextInputFormat.class);
-		conf.setOutputFormat(TextOutputFormat.class);
-		FileInputFormat.setInputPaths(conf, new Path(input));
+		conf.setInputFormat(CrimeInputFormat.class);
+		conf.setOutputFormat(PartitionedOutputFormat.class);
 		FileOutputFormat.setOutputPath(conf, new Path(output));
-		JobClient.runJob(conf);		
+		JobClient.runJob(conf);
+		mergeManifests(conf, FileOutputFormat.getOutputPath(conf));
 	}
 
 	/**
@@ -252,11 +407,13 @@ public class SanFranciscoCrimePrepOlap extends MapReduceJobBase {
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
 		if (args.length == 4) {
-			setup(args[0], args[1]);
-			generate("daily-activity", DateMapByCategoryAndDistrict.class, args[2], args[3]);
+			CrimeInputFormat.clearPreview(conf, "the olap data");
+			generate(conf, "daily-activity", args[0], args[1], DateMapByCategoryAndDistrict.class, args[2], args[3]);
 		} else {
-			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrimePrepOlap path/to/category/report path/to/district/report path/to/input/data path/to/output/data");
+			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrimePrepOlap [-D sfcrime.plan.reducers=n] [-D sfcrime.plan.minsplitsize=bytes] path/to/category/report path/to/district/report path/to/input/data path/to/output/data");
 		}
 	}
 	
@@ -0,0 +1,201 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.DecimalFormat;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextOutputFormat;
+
+import com.dynamicalsoftware.util.DistrictReference;
+
+/**
+ * weekly crime rates of each district normalized by its population and area
+ *
+ * the district reference file is small so every mapper loads it from the distributed cache and joins it
+ * to the crime records itself, the joined attributes travel with the key so no reduce side join is needed
+ * @author glenn
+ */
+public class SanFranciscoCrimeRates extends MapReduceJobBase {
+
+	private static Logger log = Logger.getLogger(SanFranciscoCrimeRates.class.getCanonicalName());
+
+	/**
+	 * configuration property, set by the driver, that holds the path to the district reference file
+	 */
+	public static final String DISTRICTS_PROPERTY = "sfcrime.rates.districts";
+
+	/**
+	 * separates the district from its reference attributes in the intermediate output
+	 */
+	private static final String SEPARATOR = "\t";
+
+	/**
+	 * joins each crime record to the reference data of its district and counts it into its weekly bucket
+	 * @author glenn
+	 */
+	public static class RateMap extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, Text, WeekCounts> {
+
+		/**
+		 * district name mapped to the intermediate key that carries its reference attributes
+		 */
+		private final java.util.Map<String, Text> keys = new java.util.HashMap<String, Text>();
+
+		private final WeekCounts tv = new WeekCounts();
+
+		@Override
+		public void configure(JobConf job) {
+			try {
+				Path p = new Path(job.get(DISTRICTS_PROPERTY));
+				BufferedReader br = null;
+				Path[] cached = DistributedCache.getLocalCacheFiles(job);
+				if (cached != null) {
+					for (Path c : cached) {
+						if (c.getName().equals(p.getName())) {
+							br = new BufferedReader(new FileReader(c.toString()));
+						}
+					}
+				}
+				if (br == null) {
+					br = new BufferedReader(new InputStreamReader(p.getFileSystem(job).open(p)));
+				}
+				for (DistrictReference district : DistrictReference.read(br).values()) {
+					StringBuffer k = new StringBuffer();
+					k.append(district.getName());
+					k.append(SEPARATOR);
+					k.append(district.getStation());
+					k.append(SEPARATOR);
+					k.append(district.getPopulation());
+					k.append(SEPARATOR);
+					k.append(district.getArea());
+					keys.put(district.getName(), new Text(k.toString()));
+				}
+				br.close();
+			} catch (IOException e) {
+				throw new RuntimeException("Cannot load the district reference data.", e);
+			}
+		}
+
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<Text, WeekCounts> output, Reporter reporter) throws IOException {
+			Text tk = keys.get(value.get(DISTRICT_COLUMN_INDEX).toUpperCase());
+			if (tk != null) {
+				try {
+					tv.clear();
+					tv.add(SanFranciscoCrime.getWeekBucket(getDate(value.get(DATE_COLUMN_INDEX))), 1l);
+					output.collect(tk, tv);
+				} catch (ParseException e) {
+					log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{value.get(DATE_COLUMN_INDEX)}), e);
+				}
+			} else {
+				reporter.incrCounter("rates", "district without reference data", 1l);
+			}
+		}
+
+	}
+
+	/**
+	 * totals the weekly buckets of a district then divides them by its population and area, the report line is the
+	 * quoted station, population and area followed by the crimes per 100,000 residents then the crimes per square kilometer
+	 * of each week in the same order as the SanFranciscoCrime district report
+	 * @author glenn
+	 */
+	public static class ReduceRateByWeek extends MapReduceBase implements Reducer<Text, WeekCounts, Text, Text> {
+
+		private final WeekCounts counts = new WeekCounts();
+
+		private final DecimalFormat rate = new DecimalFormat("0.00");
+
+		private final Text tk = new Text();
+
+		public void reduce(Text key, Iterator<WeekCounts> values, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+			String[] kp = key.toString().split(SEPARATOR);
+			long population = Long.parseLong(kp[2]);
+			double area = Double.parseDouble(kp[3]);
+			counts.clear();
+			counts.addAll(values);
+			java.util.Map<Integer, Integer> weekSummary = SanFranciscoCrime.newWeekSummary();
+			for (java.util.Map.Entry<Integer, Long> week : counts.getCounts().entrySet()) {
+				weekSummary.put(week.getKey(), week.getValue().intValue());
+			}
+			StringBuffer perCapita = new StringBuffer();
+			StringBuffer perArea = new StringBuffer();
+			for (int crimes : weekSummary.values()) {
+				perCapita.append(",");
+				perCapita.append(population > 0l ? rate.format(crimes * 100000.0 / population) : "");
+				perArea.append(",");
+				perArea.append(area > 0.0 ? rate.format(crimes / area) : "");
+			}
+			tk.set(kp[0]);
+			output.collect(tk, new Text("\"" + kp[1] + "\"," + kp[2] + "," + kp[3] + perCapita.toString() + perArea.toString()));
+		}
+
+	}
+
+	/**
+	 * sets up, plans and runs the hadoop map/reduce job itself
+	 * @param base holds any configuration specified on the command line
+	 * @param name contains the name of the job itself
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param districts is the fully qualified path to the district reference file
+	 * @param output is the fully qualified path to where the rate report should reside
+	 * @throws IOException
+	 */
+	public static void generate(Configuration base, String name, String input, String districts, String output) throws IOException {
+		JobConf conf = new JobConf(base, SanFranciscoCrimeRates.class);
+		conf.setJobName(name);
+		FileInputFormat.setInputPaths(conf, new Path(input));
+		JobPlanner.plan(conf, DISTRICT_COLUMN_INDEX);
+		Path reference = new Path(districts);
+		reference = reference.getFileSystem(conf).makeQualified(reference);
+		conf.set(DISTRICTS_PROPERTY, reference.toString());
+		DistributedCache.addCacheFile(reference.toUri(), conf);
+		conf.setMapOutputKeyClass(Text.class);
+		conf.setMapOutputValueClass(WeekCounts.class);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(Text.class);
+		conf.setMapperClass(RateMap.class);
+		conf.setCombinerClass(SanFranciscoCrimeSkew.MergeCombine.class);
+		conf.setReducerClass(ReduceRateByWeek.class);
+		conf.setInputFormat(CrimeInputFormat.class);
+		conf.setOutputFormat(TextOutputFormat.class);
+		FileOutputFormat.setOutputPath(conf, new Path(output));
+		JobClient.runJob(conf);
+	}
+
+}
@@ -0,0 +1,339 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.SequenceFileInputFormat;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * skew resistant version of the SanFranciscoCrime weekly report
+ *
+ * a sample of the input identifies the keys (such as LARCENY/THEFT) that would overload a single reducer,
+ * rows for those keys are salted across several reducers which count them into partial weekly totals,
+ * then a cheap second job merges the partial totals into the usual report
+ * @author glenn
+ */
+public class SanFranciscoCrimeSkew extends MapReduceJobBase {
+
+	private static Logger log = Logger.getLogger(SanFranciscoCrimeSkew.class.getCanonicalName());
+
+	/**
+	 * configuration property that turns on the skew resistant mode of SanFranciscoCrime
+	 */
+	public static final String ENABLED_PROPERTY = "sfcrime.skew.enabled";
+
+	/**
+	 * configuration property that holds how many rows to sample when looking for hot keys
+	 */
+	public static final String SAMPLE_SIZE_PROPERTY = "sfcrime.skew.samplesize";
+
+	/**
+	 * configuration property, set by the driver, that holds each hot key and how many reducers it is salted across
+	 */
+	public static final String HOT_KEYS_PROPERTY = "sfcrime.skew.hotkeys";
+
+	/**
+	 * configuration property, set by the driver, that holds the key column of the original mapper
+	 */
+	public static final String KEY_COLUMN_PROPERTY = "sfcrime.skew.keycolumn";
+
+	/**
+	 * configuration property, set by the driver, that holds the value column of the original mapper
+	 */
+	public static final String VALUE_COLUMN_PROPERTY = "sfcrime.skew.valuecolumn";
+
+	/**
+	 * separates the key from its salt in the intermediate output
+	 */
+	private static final char SALT_SEPARATOR = '\t';
+
+	/**
+	 * @param job holds the hot keys as tab separated pairs of key and salt count
+	 * @return hot key mapped to the number of reducers it is spread across
+	 */
+	private static java.util.Map<String, Integer> getHotKeys(JobConf job) {
+		java.util.Map<String, Integer> retVal = new HashMap<String, Integer>();
+		String[] hk = job.get(HOT_KEYS_PROPERTY, "").split("\t");
+		for (int i = 0; i + 1 < hk.length; i += 2) {
+			retVal.put(hk[i], Integer.parseInt(hk[i + 1]));
+		}
+		return retVal;
+	}
+
+	/**
+	 * counts each incident into the weekly bucket of its key, hot keys get a round robin salt appended
+	 * @author glenn
+	 */
+	public static class SaltedMap extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, Text, WeekCounts> {
+
+		private int keyID = CATEGORY_COLUMN_INDEX;
+
+		private int valueID = DATE_COLUMN_INDEX;
+
+		private java.util.Map<String, Integer> hotKeys = null;
+
+		private int next = 0;
+
+		private final Text tk = new Text();
+
+		private final WeekCounts tv = new WeekCounts();
+
+		@Override
+		public void configure(JobConf job) {
+			keyID = job.getInt(KEY_COLUMN_PROPERTY, CATEGORY_COLUMN_INDEX);
+			valueID = job.getInt(VALUE_COLUMN_PROPERTY, DATE_COLUMN_INDEX);
+			hotKeys = getHotKeys(job);
+		}
+
+		/**
+		 * @param value contains the key column from the input data
+		 * @return the key, salted when it is hot
+		 */
+		private String formatKey(String value) {
+			String retVal = value;
+			Integer salts = hotKeys.get(value);
+			if (salts != null) {
+				next = (next + 1) % salts;
+				retVal = value + SALT_SEPARATOR + next;
+			}
+			return retVal;
+		}
+
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<Text, WeekCounts> output, Reporter reporter) throws IOException {
+			String incidentDay = value.get(valueID);
+			try {
+				tv.clear();
+				tv.add(SanFranciscoCrime.getWeekBucket(getDate(incidentDay)), 1l);
+				tk.set(formatKey(value.get(keyID)));
+				output.collect(tk, tv);
+			} catch (ParseException pe) {
+				log.warning(MessageFormat.format("Invalid date {0}", new Object[]{incidentDay}));
+			}
+		}
+
+	}
+
+	/**
+	 * sends each salt of a hot key to a different reducer
+	 * @author glenn
+	 */
+	public static class SaltPartitioner implements Partitioner<Text, WeekCounts> {
+
+		public void configure(JobConf job) {
+		}
+
+		public int getPartition(Text key, WeekCounts value, int numPartitions) {
+			String k = key.toString();
+			int separator = k.indexOf(SALT_SEPARATOR);
+			int retVal = 0;
+			if (separator < 0) {
+				retVal = (k.hashCode() & Integer.MAX_VALUE) % numPartitions;
+			} else {
+				int salt = Integer.parseInt(k.substring(separator + 1));
+				retVal = ((k.substring(0, separator).hashCode() & Integer.MAX_VALUE) + salt) % numPartitions;
+			}
+			return retVal;
+		}
+
+	}
+
+	/**
+	 * removes the salt so that all the partial totals of a key meet at one reducer
+	 * @author glenn
+	 */
+	public static class MergeMap extends MapReduceBase implements Mapper<Text, WeekCounts, Text, WeekCounts> {
+
+		private final Text unsalted = new Text();
+
+		public void map(Text key, WeekCounts value, OutputCollector<Text, WeekCounts> output, Reporter reporter) throws IOException {
+			String k = key.toString();
+			int separator = k.indexOf(SALT_SEPARATOR);
+			unsalted.set(separator < 0 ? k : k.substring(0, separator));
+			output.collect(unsalted, value);
+		}
+
+	}
+
+	/**
+	 * adds up partial weekly totals, serves as the combiner and the reducer of the partial job as well as the combiner of the merge job
+	 * @author glenn
+	 */
+	public static class MergeCombine extends MapReduceBase implements Reducer<Text, WeekCounts, Text, WeekCounts> {
+
+		private final WeekCounts counts = new WeekCounts();
+
+		public void reduce(Text key, Iterator<WeekCounts> values, OutputCollector<Text, WeekCounts> output, Reporter reporter) throws IOException {
+			counts.clear();
+			counts.addAll(values);
+			output.collect(key, counts);
+		}
+
+	}
+
+	/**
+	 * adds up partial weekly totals and writes them in the same format as SanFranciscoCrime.ReduceByWeek
+	 * @author glenn
+	 */
+	public static class MergeReduceByWeek extends MapReduceBase implements Reducer<Text, WeekCounts, Text, Text> {
+
+		private final WeekCounts counts = new WeekCounts();
+
+		public void reduce(Text key, Iterator<WeekCounts> values, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+			counts.clear();
+			counts.addAll(values);
+			java.util.Map<Integer, Integer> weekSummary = SanFranciscoCrime.newWeekSummary();
+			for (java.util.Map.Entry<Integer, Long> week : counts.getCounts().entrySet()) {
+				weekSummary.put(week.getKey(), week.getValue().intValue());
+			}
+			output.collect(key, new Text(SanFranciscoCrime.formatWeekSummary(weekSummary)));
+		}
+
+	}
+
+	/**
+	 * sample the input to find the keys whose share of the rows is more than one reducer's worth
+	 * @param conf is the job to be run
+	 * @param keyID is the key column of the job's mapper
+	 * @return hot key mapped to the number of reducers it should be spread across
+	 * @throws IOException
+	 */
+	private static java.util.Map<String, Integer> findHotKeys(JobConf conf, int keyID) throws IOException {
+		java.util.Map<String, Integer> retVal = new HashMap<String, Integer>();
+		int reducers = conf.getNumReduceTasks();
+		List<CrimeRecord> sample = CrimeSampler.sample(conf, conf.getInt(SAMPLE_SIZE_PROPERTY, 10000));
+		java.util.Map<String, Integer> frequency = new HashMap<String, Integer>();
+		for (CrimeRecord record : sample) {
+			Integer f = frequency.get(record.get(keyID));
+			frequency.put(record.get(keyID), f == null ? 1 : f.intValue() + 1);
+		}
+		for (String k : frequency.keySet()) {
+			int salts = (int)Math.min(reducers, Math.ceil((double)frequency.get(k) * reducers / sample.size()));
+			if (salts > 1) {
+				retVal.put(k, salts);
+				log.info(MessageFormat.format("{0} is {1,number,#} of {2,number,#} sampled rows, spreading it across {3,number,#} reducers", new Object[]{k, frequency.get(k), sample.size(), salts}));
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * sets up and runs the job that merges partial weekly totals into the usual report
+	 * @param base holds any configuration specified on the command line
+	 * @param name contains the name of the job itself
+	 * @param partials are the fully qualified paths to the sequence files of partial totals
+	 * @param output is the fully qualified path to where the generated report should reside
+	 * @throws IOException
+	 */
+	public static void merge(Configuration base, String name, Path[] partials, String output) throws IOException {
+		JobConf conf = new JobConf(base, SanFranciscoCrimeSkew.class);
+		conf.setJobName(name);
+		conf.setMapOutputKeyClass(Text.class);
+		conf.setMapOutputValueClass(WeekCounts.class);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(Text.class);
+		conf.setMapperClass(MergeMap.class);
+		conf.setCombinerClass(MergeCombine.class);
+		conf.setReducerClass(MergeReduceByWeek.class);
+		conf.setInputFormat(SequenceFileInputFormat.class);
+		conf.setOutputFormat(TextOutputFormat.class);
+		FileInputFormat.setInputPaths(conf, partials);
+		FileOutputFormat.setOutputPath(conf, new Path(output));
+		JobClient.runJob(conf);
+	}
+
+	/**
+	 * sets up and runs both the partial and the merge jobs
+	 * @param base holds any configuration specified on the command line
+	 * @param name contains the name of the job itself
+	 * @param mapper identified which SanFranciscoCrime mapper class would normally be used
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param output is the fully qualified path to where the generated report should reside
+	 * @throws IOException
+	 */
+	public static void generate(Configuration base, String name, Class mapper, String input, String output) throws IOException {
+		SanFranciscoCrime.Map original = (SanFranciscoCrime.Map)ReflectionUtils.newInstance(mapper, base);
+		Path partial = new Path(output.concat("-partial"));
+
+		FileSystem fs = partial.getFileSystem(base);
+		// left behind by a run that failed, the partial job would refuse to start
+		fs.delete(partial, true);
+		try {
+			JobConf conf = new JobConf(base, SanFranciscoCrimeSkew.class);
+			conf.setJobName(name.concat("-partial"));
+			conf.setInt(KEY_COLUMN_PROPERTY, original.keyID);
+			conf.setInt(VALUE_COLUMN_PROPERTY, original.valueID);
+			conf.setOutputKeyClass(Text.class);
+			conf.setOutputValueClass(WeekCounts.class);
+			conf.setMapperClass(SaltedMap.class);
+			conf.setPartitionerClass(SaltPartitioner.class);
+			// salted keys are totalled map side so each salt ships one set of weekly buckets per map
+			conf.setCombinerClass(MergeCombine.class);
+			conf.setReducerClass(MergeCombine.class);
+			conf.setInputFormat(CrimeInputFormat.class);
+			conf.setOutputFormat(SequenceFileOutputFormat.class);
+			FileInputFormat.setInputPaths(conf, new Path(input));
+			FileOutputFormat.setOutputPath(conf, partial);
+			// the hot keys depend on the number of reducers so it has to be planned first
+			JobPlanner.plan(conf, original.keyID);
+			if (conf.getNumReduceTasks() < 2) {
+				log.warning(MessageFormat.format("{0} runs with a single reducer so no key can be hot, set sfcrime.plan.reducers to spread the hot keys", new Object[]{name}));
+			}
+			StringBuffer hk = new StringBuffer();
+			java.util.Map<String, Integer> hotKeys = findHotKeys(conf, original.keyID);
+			for (String k : hotKeys.keySet()) {
+				if (hk.length() > 0) {
+					hk.append("\t");
+				}
+				hk.append(k);
+				hk.append("\t");
+				hk.append(hotKeys.get(k));
+			}
+			conf.set(HOT_KEYS_PROPERTY, hk.toString());
+			JobClient.runJob(conf);
+
+			merge(base, name.concat("-merge"), new Path[]{partial}, output);
+		} finally {
+			fs.delete(partial, true);
+		}
+	}
+
+}
@@ -0,0 +1,325 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * map/reduce job responsible for generating the daily and weekly time series of each category and district
+ *
+ * a secondary sort on the day of the incident means the reducer streams through a key's days in order
+ * in constant memory no matter how many incidents there are
+ * @author glenn
+ */
+public class SanFranciscoCrimeTimeSeries extends MapReduceJobBase {
+
+	private static Logger log = Logger.getLogger(SanFranciscoCrimeTimeSeries.class.getCanonicalName());
+
+	/**
+	 * name of the additional output that holds the daily series
+	 */
+	public static final String DAILY_OUTPUT = "daily";
+
+	/**
+	 * number of days in the rolling average of the daily series
+	 */
+	private static final int DAILY_WINDOW = 7;
+
+	/**
+	 * number of weeks in the rolling average of the weekly series
+	 */
+	private static final int WEEKLY_WINDOW = 4;
+
+	/**
+	 * collects the key column along with the day of the incident
+	 * @author glenn
+	 */
+	public static abstract class Map extends MapReduceBase implements Mapper<LongWritable, CrimeRecord, KeyDay, DayCount> {
+
+		/**
+		 * zero based index identifies which column in the input data should serve as the key
+		 */
+		protected int keyID = 0;
+
+		private final KeyDay tk = new KeyDay();
+
+		private final DayCount tv = new DayCount();
+
+		public void map(LongWritable key, CrimeRecord value, OutputCollector<KeyDay, DayCount> output, Reporter reporter) throws IOException {
+			try {
+				int day = getEpochDay(getDate(value.get(DATE_COLUMN_INDEX)));
+				tk.set(value.get(keyID), day);
+				tv.set(day, 1l);
+				output.collect(tk, tv);
+			} catch (ParseException e) {
+				log.log(Level.WARNING, MessageFormat.format("Expected {0} to be a date but it was not.\n", new Object[]{value.get(DATE_COLUMN_INDEX)}), e);
+			}
+		}
+
+	}
+
+	/**
+	 * mapper for category by day
+	 * @author glenn
+	 */
+	public static class CategoryMapByDay extends Map {
+		public CategoryMapByDay() {
+			keyID = CATEGORY_COLUMN_INDEX;
+		}
+	}
+
+	/**
+	 * mapper for district by day
+	 * @author glenn
+	 */
+	public static class DistrictMapByDay extends Map {
+		public DistrictMapByDay() {
+			keyID = DISTRICT_COLUMN_INDEX;
+		}
+	}
+
+	/**
+	 * totals the incidents of each run of the same day
+	 * @author glenn
+	 */
+	public static class Combine extends MapReduceBase implements Reducer<KeyDay, DayCount, KeyDay, DayCount> {
+
+		private final DayCount total = new DayCount();
+
+		public void reduce(KeyDay key, Iterator<DayCount> values, OutputCollector<KeyDay, DayCount> output, Reporter reporter) throws IOException {
+			int day = 0;
+			long count = 0l;
+			boolean any = false;
+			while (values.hasNext()) {
+				DayCount v = values.next();
+				if (any && v.getDay() != day) {
+					total.set(day, count);
+					output.collect(key, total);
+					count = 0l;
+				}
+				any = true;
+				day = v.getDay();
+				count += v.getCount();
+			}
+			if (any) {
+				total.set(day, count);
+				output.collect(key, total);
+			}
+		}
+
+	}
+
+	/**
+	 * streams through the days of a key in order, filling in days without incidents, and emits the daily
+	 * series with a rolling average plus the weekly series with a rolling average and week over week delta
+	 * @author glenn
+	 */
+	public static class ReduceTimeSeries extends MapReduceBase implements Reducer<KeyDay, DayCount, Text, Text> {
+
+		private MultipleOutputs mos = null;
+
+		private final DecimalFormat average = new DecimalFormat("0.00");
+
+		private OutputCollector<Text, Text> output = null;
+
+		private OutputCollector<Text, Text> daily = null;
+
+		private final Text name = new Text();
+
+		private final long[] days = new long[DAILY_WINDOW];
+
+		private final long[] weeks = new long[WEEKLY_WINDOW];
+
+		private int dayCount = 0;
+
+		private int weekCount = 0;
+
+		private int week = 0;
+
+		private long weekTotal = 0l;
+
+		@Override
+		public void configure(JobConf job) {
+			mos = new MultipleOutputs(job);
+		}
+
+		/**
+		 * @param window holds the most recent values in a ring
+		 * @param filled is how many values have ever been put in the ring
+		 * @return the average of the values in the ring
+		 */
+		private String getAverage(long[] window, int filled) {
+			int n = Math.min(filled, window.length);
+			long sum = 0l;
+			for (int i = 0; i < n; i++) {
+				sum += window[i];
+			}
+			return average.format((double)sum / n);
+		}
+
+		/**
+		 * emit the week that has just ended
+		 * @throws IOException
+		 */
+		private void emitWeek() throws IOException {
+			StringBuffer sv = new StringBuffer();
+			sv.append(outputDateFormat.format(getDate(week)));
+			sv.append(",");
+			sv.append(weekTotal);
+			sv.append(",");
+			if (weekCount > 0) {
+				sv.append(weekTotal - weeks[(weekCount - 1) % WEEKLY_WINDOW]);
+			}
+			weeks[weekCount % WEEKLY_WINDOW] = weekTotal;
+			weekCount++;
+			sv.append(",");
+			sv.append(getAverage(weeks, weekCount));
+			output.collect(name, new Text(sv.toString()));
+			weekTotal = 0l;
+		}
+
+		/**
+		 * emit a day of the daily series and roll it into its week
+		 * @param day is the number of days since 1970/01/01
+		 * @param count is the number of incidents on that day
+		 * @throws IOException
+		 */
+		private void emitDay(int day, long count) throws IOException {
+			int ws = getEpochDay(getWeekStart(getDate(day)));
+			if (dayCount > 0 && ws != week) {
+				emitWeek();
+			}
+			week = ws;
+			weekTotal += count;
+			days[dayCount % DAILY_WINDOW] = count;
+			dayCount++;
+			StringBuffer sv = new StringBuffer();
+			sv.append(outputDateFormat.format(getDate(day)));
+			sv.append(",");
+			sv.append(count);
+			sv.append(",");
+			sv.append(getAverage(days, dayCount));
+			daily.collect(name, new Text(sv.toString()));
+		}
+
+		@SuppressWarnings("unchecked")
+		public void reduce(KeyDay key, Iterator<DayCount> values, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+			this.output = output;
+			daily = mos.getCollector(DAILY_OUTPUT, reporter);
+			name.set(key.getKey());
+			dayCount = 0;
+			weekCount = 0;
+			weekTotal = 0l;
+			int day = 0;
+			long count = 0l;
+			boolean any = false;
+			while (values.hasNext()) {
+				DayCount v = values.next();
+				if (any && v.getDay() != day) {
+					emitDay(day, count);
+					for (int d = day + 1; d < v.getDay(); d++) {
+						emitDay(d, 0l);
+					}
+					count = 0l;
+				}
+				any = true;
+				day = v.getDay();
+				count += v.getCount();
+			}
+			if (any) {
+				emitDay(day, count);
+				emitWeek();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			mos.close();
+		}
+
+	}
+
+	/**
+	 * sets up and runs the hadoop map/reduce job itself
+	 * @param base holds any configuration specified on the command line
+	 * @param name contains the name of the job itself
+	 * @param mapper identified which mapper class to use
+	 * @param input is the fully qualified path to the raw crime data
+	 * @param output is the fully qualified path to where the weekly series, and the daily-r-* files, should reside
+	 * @throws IOException
+	 */
+	private static void generate(Configuration base, String name, Class mapper, String input, String output) throws IOException {
+		JobConf conf = new JobConf(base, SanFranciscoCrimeTimeSeries.class);
+		conf.setJobName(name);
+		conf.setMapOutputKeyClass(KeyDay.class);
+		conf.setMapOutputValueClass(DayCount.class);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(Text.class);
+		conf.setMapperClass(mapper);
+		conf.setCombinerClass(Combine.class);
+		conf.setReducerClass(ReduceTimeSeries.class);
+		conf.setPartitionerClass(KeyDay.KeyPartitioner.class);
+		conf.setOutputValueGroupingComparator(KeyDay.KeyGroupingComparator.class);
+		conf.setInputFormat(CrimeInputFormat.class);
+		conf.setOutputFormat(TextOutputFormat.class);
+		MultipleOutputs.addNamedOutput(conf, DAILY_OUTPUT, TextOutputFormat.class, Text.class, Text.class);
+		FileInputFormat.setInputPaths(conf, new Path(input));
+		FileOutputFormat.setOutputPath(conf, new Path(output));
+		JobClient.runJob(conf);
+	}
+
+	/**
+	 * enforce proper CLI usage then drive the overall process
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		String[] remaining = new GenericOptionsParser(conf, args).getRemainingArgs();
+		if (remaining.length == 3) {
+			CrimeInputFormat.clearPreview(conf, "time series");
+			generate(conf, "category-time-series", CategoryMapByDay.class, remaining[0], remaining[1]);
+			generate(conf, "district-time-series", DistrictMapByDay.class, remaining[0], remaining[2]);
+		} else {
+			System.err.println("\nusage: bin/hadoop jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar SanFranciscoCrimeTimeSeries path/to/input/directory path/to/category/series path/to/district/series");
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * partial weekly totals for a key, only the non zero week buckets are stored
+ * @author glenn
+ */
+public class WeekCounts implements Writable {
+
+	/**
+	 * maps week bucket to the number of crimes in that bucket
+	 */
+	private final TreeMap<Integer, Long> counts = new TreeMap<Integer, Long>();
+
+	/**
+	 * add crimes to a week bucket
+	 * @param bucket identifies the week
+	 * @param crimes is how many crimes to add
+	 */
+	public void add(int bucket, long crimes) {
+		Long current = counts.get(bucket);
+		counts.put(bucket, current == null ? crimes : current.longValue() + crimes);
+	}
+
+	/**
+	 * fold another set of partial totals into this one
+	 * @param other holds the totals to be added
+	 */
+	public void add(WeekCounts other) {
+		for (Integer bucket : other.counts.keySet()) {
+			add(bucket, other.counts.get(bucket));
+		}
+	}
+
+	/**
+	 * fold a stream of partial totals into this one
+	 * @param values are the partial totals, hadoop reuses the same instance
+	 */
+	public void addAll(Iterator<WeekCounts> values) {
+		while (values.hasNext()) {
+			add(values.next());
+		}
+	}
+
+	/**
+	 * @return the week buckets in ascending order mapped to their totals
+	 */
+	public java.util.Map<Integer, Long> getCounts() {
+		return counts;
+	}
+
+	public void clear() {
+		counts.clear();
+	}
+
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, counts.size());
+		for (Integer bucket : counts.keySet()) {
+			WritableUtils.writeVInt(out, bucket);
+			WritableUtils.writeVLong(out, counts.get(bucket));
+		}
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		counts.clear();
+		int size = WritableUtils.readVInt(in);
+		for (int i = 0; i < size; i++) {
+			int bucket = WritableUtils.readVInt(in);
+			counts.put(bucket, WritableUtils.readVLong(in));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return counts.toString();
+	}
+
+}
@@ -17,10 +17,14 @@ limitations under the License.
 */
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.DateFormat;
@@ -34,6 +38,8 @@ import java.util.List;
 import java.util.Map;
 
 import com.dynamicalsoftware.util.DataFile;
+import com.dynamicalsoftware.util.DistrictReference;
+import com.dynamicalsoftware.util.PartitionManifest;
 
 /**
  * responsible for populating the star schema based on hadoop map/reduce output files
@@ -62,9 +68,34 @@ public class LoadStarDB {
 	private List<String> districts = null;
 	
 	/**
-	 * maps a date to the primary key of the corresponding row in the time period table
+	 * category name mapped to the primary key of its row
 	 */
-	private final java.util.Map<Date, Integer> timeperiodLookup = new HashMap<Date, Integer>();	
+	private Map<String, Integer> categoryIds = null;
+	
+	/**
+	 * district name mapped to the primary key of its row
+	 */
+	private Map<String, Integer> districtIds = null;
+	
+	/**
+	 * first date, as yyyy/MM/dd, to be loaded or null to load from the earliest date in the data
+	 */
+	private String from = null;
+	
+	/**
+	 * last date, as yyyy/MM/dd, to be loaded or null to load through the latest date in the data
+	 */
+	private String to = null;
+	
+	/**
+	 * partition directory mapped to its manifest, null when the partition has none
+	 */
+	private Map<File, PartitionManifest> manifests = new HashMap<File, PartitionManifest>();
+	
+	/**
+	 * how many time period rows to send to the database in one batch
+	 */
+	private static final int BATCH_SIZE = 500;
 	
 	/**
 	 * formats date for insertion into the relational database
@@ -102,6 +133,16 @@ public class LoadStarDB {
 		return retVal;
 	}
 
+	/**
+	 * the primary key is given explicitly so that it is known even when rows kept from an earlier load leave
+	 * the auto increment counter of the table ahead of the largest key
+	 * @param table is the name of the table
+	 * @return the primary key that insert will return for the next row of the table
+	 */
+	private int nextPrimaryKey(String table) {
+		return lastPrimaryKey.containsKey(table) ? lastPrimaryKey.get(table) + 1 : 1;
+	}
+
 	/**
 	 * inserts a category row into the database
 	 * @param category is the name of the category
@@ -110,6 +151,7 @@ public class LoadStarDB {
 	 */
 	private int insertCategory(String category) throws SQLException {
 		DataRecord dr = new DataRecord();
+		dr.put("category_id", nextPrimaryKey("category"));
 		dr.put("name", category);
 		return insert("category", dr);
 	}
@@ -122,42 +164,127 @@ public class LoadStarDB {
 	 */
 	private int insertDistrict(String district) throws SQLException {
 		DataRecord dr = new DataRecord();
+		dr.put("district_id", nextPrimaryKey("district"));
 		dr.put("name", district);
 		return insert("district", dr);
 	}
 		
 	/**
-	 * responsible for breaking down a date into year, month, week, and day
+	 * responsible for breaking down a date into year, quarter, month, week, and day
 	 * @param dr holds the breakdown
-	 * @param d is the date to be broken down
+	 * @param cal is the date to be broken down
 	 */
-	private void setTimePeriod(DataRecord dr, Date d) {
-		Calendar cal = Calendar.getInstance();
-		cal.setTime(d);
+	private void setTimePeriod(DataRecord dr, Calendar cal) {
+		dr.put("time_id", cal.get(Calendar.YEAR) * 10000 + (cal.get(Calendar.MONTH) + 1) * 100 + cal.get(Calendar.DAY_OF_MONTH));
 		dr.put("year", cal.get(Calendar.YEAR));
+		dr.put("quarter", cal.get(Calendar.MONTH) / 3 + 1);
 		dr.put("month", cal.get(Calendar.MONTH));
 		dr.put("week", cal.get(Calendar.WEEK_OF_MONTH));
+		dr.put("week_of_year", cal.get(Calendar.WEEK_OF_YEAR));
 		dr.put("day", cal.get(Calendar.DAY_OF_MONTH));
+		dr.put("day_of_week", cal.get(Calendar.DAY_OF_WEEK));
+	}
+
+	/**
+	 * the primary key of the time period table is the date itself as a yyyyMMdd number
+	 * so that the fact rows can compute it without any look up
+	 * @param key is a date formatted as yyyy/MM/dd like the keys of the map/reduce job output files
+	 * @return the primary key of the corresponding row in the time period table
+	 * @throws ParseException
+	 */
+	private static int getTimeId(String key) throws ParseException {
+		if (key.length() != 10 || key.charAt(4) != '/' || key.charAt(7) != '/') {
+			throw new ParseException(MessageFormat.format("Expected {0} to be formatted as yyyy/MM/dd.", new Object[]{key}), 0);
+		}
+		try {
+			return Integer.parseInt(key.substring(0, 4)) * 10000 + Integer.parseInt(key.substring(5, 7)) * 100 + Integer.parseInt(key.substring(8));
+		} catch (NumberFormatException nfe) {
+			throw new ParseException(MessageFormat.format("Expected {0} to be formatted as yyyy/MM/dd.", new Object[]{key}), 0);
+		}
+	}
+
+	/**
+	 * @param key is a date formatted as yyyy/MM/dd like the keys of the map/reduce job output files
+	 * @return true when the date is within the range to be loaded
+	 */
+	private boolean inRange(String key) {
+		// yyyy/MM/dd sorts the same as text as it does as a date
+		return (from == null || key.compareTo(from) >= 0) && (to == null || key.compareTo(to) <= 0);
 	}
 
 	/**
-	 * inserts a new time period row into the database
-	 * @param d the date to be inserted if it has not already done so previously
-	 * @return the primary key for this row (new or old)
+	 * populate the time period table with every day of every year from the first to the last date in one batch
+	 * so that the dimension is complete and does not depend on the order in which the facts are loaded, any
+	 * rows of those years left from an earlier load of a different date range are replaced
+	 * @param first is the earliest date in the data
+	 * @param last is the latest date in the data
+	 * @return the number of rows inserted
 	 * @throws SQLException
 	 */
-	private int insertTimePeriod(Date d) throws SQLException {
+	private int insertTimePeriods(Date first, Date last) throws SQLException {
 		int retVal = 0;
-		if (timeperiodLookup.containsKey(d)) {
-			retVal = timeperiodLookup.get(d);
-		} else {
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(last);
+		int lastYear = cal.get(Calendar.YEAR);
+		cal.setTime(first);
+		cal.set(cal.get(Calendar.YEAR), Calendar.JANUARY, 1, 0, 0, 0);
+		Statement s = db.createStatement();
+		s.execute(MessageFormat.format("delete from timeperiod where time_id between {0} and {1}", new Object[]{Integer.toString(cal.get(Calendar.YEAR) * 10000 + 101), Integer.toString(lastYear * 10000 + 1231)}));
+		while (cal.get(Calendar.YEAR) <= lastYear) {
 			DataRecord dr = new DataRecord();
-			setTimePeriod(dr, d);
-			retVal = insert("timeperiod", dr);
-			timeperiodLookup.put(d, retVal);
+			setTimePeriod(dr, cal);
+			s.addBatch("insert into timeperiod ".concat(dr.toString()));
+			retVal++;
+			if (retVal % BATCH_SIZE == 0) {
+				s.executeBatch();
+			}
+			cal.add(Calendar.DAY_OF_MONTH, 1);
 		}
+		s.executeBatch();
+		s.close();
 		return retVal;
 	}
+
+	/**
+	 * widen a range of dates to include every key, within the range to be loaded, of a map/reduce job output file
+	 * @param dataFile fully qualified path to a map/reduce output file, or directory of them, whose lines start with a yyyy/MM/dd key
+	 * @param range holds the earliest and latest dates found so far, either of which may be null
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private void extendDateRange(String dataFile, Date[] range) throws IOException, ParseException {
+		String first = null;
+		String last = null;
+    	for (String part : DataFile.getFiles(dataFile, from, to)) {
+	    	BufferedReader br = new BufferedReader(new FileReader(part));
+	    	String line = br.readLine();
+	    	while  (line != null) {
+	    		int tab = line.indexOf('\t');
+	    		if (tab > 0 && inRange(line.substring(0, tab))) {
+	    			String key = line.substring(0, tab);
+	    			// yyyy/MM/dd sorts the same as text as it does as a date
+	    			if (first == null || key.compareTo(first) < 0) {
+	    				first = key;
+	    			}
+	    			if (last == null || key.compareTo(last) > 0) {
+	    				last = key;
+	    			}
+	    		}
+	    		line = br.readLine();
+	    	}
+	    	br.close();
+    	}
+    	if (first != null) {
+    		Date d = kdf.parse(first);
+    		if (range[0] == null || d.before(range[0])) {
+    			range[0] = d;
+    		}
+    		d = kdf.parse(last);
+    		if (range[1] == null || d.after(range[1])) {
+    			range[1] = d;
+    		}
+    	}
+	}
 	
 	/**
 	 * inserts a row into the fact table
@@ -175,22 +302,107 @@ public class LoadStarDB {
 		dr.put("crimes", crimes);
 		insert("fact", dr);
 	}
+
+	/**
+	 * inserts a row into the spatial fact table
+	 * @param timeId foreign key into corresponding row of timeperiod table
+	 * @param row is the grid row of the cell
+	 * @param col is the grid column of the cell
+	 * @param latitude is the latitude of the south west corner of the cell
+	 * @param longitude is the longitude of the south west corner of the cell
+	 * @param crimes is the total crimes committed in this cell during this time bucket
+	 * @throws SQLException
+	 */
+	private void insertSpatialFact(int timeId, int row, int col, BigDecimal latitude, BigDecimal longitude, int crimes) throws SQLException {
+		DataRecord dr = new DataRecord();
+		dr.put("time_id", timeId);
+		dr.put("cell_row", row);
+		dr.put("cell_col", col);
+		dr.put("latitude", latitude);
+		dr.put("longitude", longitude);
+		dr.put("crimes", crimes);
+		insert("spatialfact", dr);
+	}
 	
 	/**
-	 * load category and district data from files created during the San Francisco Crime map/reduce job
-	 * @param categoryReport fully qualified path and file to bycategory/part-00000
-	 * @param districtReport fully qualified path and file to bydistrict/part-00000
+	 * add the population, area and police station of each district from a district reference file
+	 * @param referenceFile fully qualified path and file to the csv of district,population,area,station
+	 * @return the number of districts that were updated
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	private int updateDistricts(String referenceFile) throws IOException, SQLException {
+		int retVal = 0;
+		BufferedReader br = new BufferedReader(new FileReader(referenceFile));
+		Map<String, DistrictReference> reference = DistrictReference.read(br);
+		br.close();
+		// station and district names come from a file so they are bound rather than quoted into the sql
+		PreparedStatement s = db.prepareStatement("update district set population = ?, area = ?, station = ? where name = ?");
+		for (String district : districts) {
+			DistrictReference dr = reference.get(district.toUpperCase());
+			if (dr != null) {
+				s.setLong(1, dr.getPopulation());
+				s.setDouble(2, dr.getArea());
+				s.setString(3, dr.getStation());
+				s.setString(4, district);
+				s.addBatch();
+				retVal++;
+			} else {
+				System.err.println("no reference data for district " + district);
+			}
+		}
+		s.executeBatch();
+		s.close();
+		return retVal;
+	}
+
+	/**
+	 * read the rows already in a dimension table and remember its largest primary key
+	 * @param table is the name of the dimension table, whose primary key is named after it
+	 * @return name mapped to the primary key of its row
+	 * @throws SQLException
+	 */
+	private Map<String, Integer> getIds(String table) throws SQLException {
+		Map<String, Integer> retVal = new HashMap<String, Integer>();
+		Statement s = db.createStatement();
+		ResultSet rs = s.executeQuery(MessageFormat.format("select {0}_id, name from {0}", new Object[]{table}));
+		int last = 0;
+		while (rs.next()) {
+			int id = rs.getInt(1);
+			retVal.put(rs.getString(2), id);
+			last = Math.max(last, id);
+		}
+		rs.close();
+		s.close();
+		if (last > 0) {
+			lastPrimaryKey.put(table, last);
+		}
+		return retVal;
+	}
+
+	/**
+	 * load category and district data from files created during the San Francisco Crime map/reduce job, the rows
+	 * already in the database keep their primary keys so that the facts outside of the date range still refer to
+	 * the right rows and only the names that are new get rows of their own
+	 * @param categoryReport fully qualified path to bycategory/part-00000 or the bycategory directory
+	 * @param districtReport fully qualified path to bydistrict/part-00000 or the bydistrict directory
 	 * @throws IOException
 	 * @throws SQLException
 	 */
 	private void setup(String categoryReport, String districtReport) throws IOException, SQLException {
 		categories = DataFile.extractKeys(categoryReport);
 		districts = DataFile.extractKeys(districtReport);
+		categoryIds = getIds("category");
+		districtIds = getIds("district");
 		for (String category : categories) {
-			insertCategory(category);
+			if (!categoryIds.containsKey(category)) {
+				categoryIds.put(category, insertCategory(category));
+			}
 		}
 		for (String district : districts) {
-			insertDistrict(district);
+			if (!districtIds.containsKey(district)) {
+				districtIds.put(district, insertDistrict(district));
+			}
 		}
 	}
 
@@ -206,29 +418,75 @@ public class LoadStarDB {
 	}
 
 	/**
-	 * truncate all tables in the star schema that this job is to repopulate
+	 * delete the rows of a fact table that fall within the range to be loaded
+	 * @param name identifies which fact table to delete from
+	 * @throws SQLException
+	 * @throws ParseException
+	 */
+	private void deleteRange(String name) throws SQLException, ParseException {
+		StringBuffer sql = new StringBuffer();
+		sql.append("delete from ");
+		sql.append(name);
+		String conjunction = " where ";
+		if (from != null) {
+			sql.append(conjunction);
+			sql.append("time_id >= ");
+			sql.append(getTimeId(from));
+			conjunction = " and ";
+		}
+		if (to != null) {
+			sql.append(conjunction);
+			sql.append("time_id <= ");
+			sql.append(getTimeId(to));
+		}
+		Statement s = db.createStatement();
+		s.execute(sql.toString());
+		s.close();
+	}
+
+	/**
+	 * empty all tables in the star schema that this job is to repopulate, only the facts within the date range
+	 * are deleted when there is one and the category and district tables are then kept since the remaining facts
+	 * refer to their rows
 	 * @throws SQLException
+	 * @throws ParseException
 	 */
-	private void reset() throws SQLException {
-		truncate("fact");
-		truncate("category");
-		truncate("district");
-		truncate("timeperiod");
+	private void reset() throws SQLException, ParseException {
+		if (from == null && to == null) {
+			truncate("fact");
+			truncate("timeperiod");
+			truncate("category");
+			truncate("district");
+		} else {
+			deleteRange("fact");
+		}
 	}
 
 	/**
 	 * prepare to load the star schema for OLAP
-	 * @param categoryReport fully qualified path and file to bycategory/part-00000
-	 * @param districtReport fully qualified path and file to bydistrict/part-00000
+	 * @param categoryReport fully qualified path to bycategory/part-00000 or the bycategory directory
+	 * @param districtReport fully qualified path to bydistrict/part-00000 or the bydistrict directory
 	 * @param dbhost name of the host where mysql is running
 	 * @param dbname name of the database where the star schema has been created
 	 * @param dbuser user name with which to authenticate with mysql
 	 * @param dbpassword password with which to authenticate with mysql
+	 * @param from is the first date, as yyyy/MM/dd, to be loaded or null to load from the earliest date in the data
+	 * @param to is the last date, as yyyy/MM/dd, to be loaded or null to load through the latest date in the data
 	 * @throws ClassNotFoundException
 	 * @throws SQLException
 	 * @throws IOException
+	 * @throws ParseException
 	 */
-	private LoadStarDB(String categoryReport, String districtReport, String dbhost, String dbname, String dbuser, String dbpassword) throws ClassNotFoundException, SQLException, IOException {
+	private LoadStarDB(String categoryReport, String districtReport, String dbhost, String dbname, String dbuser, String dbpassword, String from, String to) throws ClassNotFoundException, SQLException, IOException, ParseException {
+		// fail before touching the database if the range is not formatted like the job output keys
+		if (from != null) {
+			getTimeId(from);
+		}
+		if (to != null) {
+			getTimeId(to);
+		}
+		this.from = from;
+		this.to = to;
 		Class.forName("com.mysql.jdbc.Driver");
 		String cs = MessageFormat.format("jdbc:mysql://{0}/{1}?user={2}&password={3}&noAccessToProcedureBodies=true", new Object[]{dbhost, dbname, dbuser, dbpassword});
 		db = DriverManager.getConnection(cs);
@@ -237,38 +495,131 @@ public class LoadStarDB {
 	}
 	
 	/**
-	 * process the SanFranciscoCrimPrepOlap map/reduce job output to populate the timeperiod and fact tables
-	 * @param dataFile fullyqualified path and file to star/part-00000
+	 * check a part file of a time partitioned job output against the manifest of its partition
+	 * @param part is the part file to check
+	 * @return false if the partition has a manifest that does not match the part file, true otherwise
+	 * @throws IOException
+	 */
+	private boolean verify(File part) throws IOException {
+		File partition = part.getParentFile();
+		if (!manifests.containsKey(partition)) {
+			PartitionManifest manifest = null;
+			File mf = new File(partition, PartitionManifest.MANIFEST);
+			if (mf.isFile()) {
+				manifest = new PartitionManifest();
+				BufferedReader br = new BufferedReader(new FileReader(mf));
+				manifest.read(br);
+				br.close();
+			}
+			manifests.put(partition, manifest);
+		}
+		PartitionManifest manifest = manifests.get(partition);
+		return manifest == null || manifest.verify(part);
+	}
+
+	/**
+	 * process the SanFranciscoCrimPrepOlap map/reduce job output to populate the timeperiod and fact tables, only the
+	 * partitions that overlap the date range are read and any part file that does not match its manifest is skipped,
+	 * the job output identifies categories and districts by their position in the reports which are mapped by name
+	 * to the primary keys of their rows
+	 * @param dataFile fully qualified path to star/part-00000 or to the star directory
 	 * @throws IOException
 	 * @throws ParseException
 	 */
 	private void processData(String dataFile) throws IOException, ParseException {
-    	BufferedReader br = new BufferedReader(new FileReader(dataFile));
-    	String line = br.readLine();
-    	while  (line != null) {
-    		String[] lp = line.split("\t");
-    		if (lp.length > 0) {
-    			Date d = kdf.parse(lp[0]);
-    			String[] data = DataFile.getColumns(lp[1]);
-    			if (data.length == 3) {
-	    			try {
-	    				int categoryId = Integer.parseInt(data[0]) + 1;
-	    				int districtId = Integer.parseInt(data[1]) + 1;
-	    				int crimes = Integer.parseInt(data[2]);
-	    				int timeId = insertTimePeriod(d);
-	    				insertFact(districtId, categoryId, timeId, crimes);
-	    			} catch (NumberFormatException nfe) {
-	    				System.err.println("invalid data: " + line);
-	    			} catch (SQLException e) {
-						e.printStackTrace();
-					}
-    			} else {
-    				System.err.println("invalid data: " + line);
-    			}
+    	for (String part : DataFile.getFiles(dataFile, from, to)) {
+    		if (!verify(new File(part))) {
+    			System.err.println("row count or checksum does not match the manifest, skipping " + part);
+    			continue;
     		}
-    		line = br.readLine();
+	    	BufferedReader br = new BufferedReader(new FileReader(part));
+	    	String line = br.readLine();
+	    	while  (line != null) {
+	    		String[] lp = line.split("\t");
+	    		if (lp.length > 0 && inRange(lp[0])) {
+	    			int timeId = getTimeId(lp[0]);
+	    			String[] data = DataFile.getColumns(lp[1]);
+	    			if (data.length == 3) {
+		    			try {
+		    				int categoryId = categoryIds.get(categories.get(Integer.parseInt(data[0])));
+		    				int districtId = districtIds.get(districts.get(Integer.parseInt(data[1])));
+		    				int crimes = Integer.parseInt(data[2]);
+		    				insertFact(districtId, categoryId, timeId, crimes);
+		    			} catch (NumberFormatException nfe) {
+		    				System.err.println("invalid data: " + line);
+		    			} catch (IndexOutOfBoundsException ioobe) {
+		    				System.err.println("category or district is not in the reports: " + line);
+		    			} catch (SQLException e) {
+							e.printStackTrace();
+						}
+	    			} else {
+	    				System.err.println("invalid data: " + line);
+	    			}
+	    		}
+	    		line = br.readLine();
+	    	}
+	    	br.close();
+    	}
+	}
+
+	/**
+	 * process the SanFranciscoCrimeHeatmap map/reduce job output to populate the spatial fact table
+	 * @param dataFile fully qualified path to heatmap/part-00000 or to the heatmap directory when there were several reducers
+	 * @throws IOException
+	 * @throws ParseException
+	 * @throws SQLException
+	 */
+	private void processSpatialData(String dataFile) throws IOException, ParseException, SQLException {
+		if (from == null && to == null) {
+			truncate("spatialfact");
+		} else {
+			deleteRange("spatialfact");
+		}
+    	for (String part : DataFile.getFiles(dataFile, from, to)) {
+	    	BufferedReader br = new BufferedReader(new FileReader(part));
+	    	String line = br.readLine();
+	    	while  (line != null) {
+	    		String[] lp = line.split("\t");
+	    		if (lp.length > 1 && inRange(lp[0])) {
+	    			int timeId = getTimeId(lp[0]);
+	    			String[] data = lp[1].split(",");
+	    			if (data.length == 5) {
+		    			try {
+		    				int row = Integer.parseInt(data[0]);
+		    				int col = Integer.parseInt(data[1]);
+		    				BigDecimal latitude = new BigDecimal(data[2]);
+		    				BigDecimal longitude = new BigDecimal(data[3]);
+		    				int crimes = Integer.parseInt(data[4]);
+		    				insertSpatialFact(timeId, row, col, latitude, longitude, crimes);
+		    			} catch (NumberFormatException nfe) {
+		    				System.err.println("invalid data: " + line);
+		    			}
+	    			} else {
+	    				System.err.println("invalid data: " + line);
+	    			}
+	    		}
+	    		line = br.readLine();
+	    	}
+	    	br.close();
     	}
-    	br.close();
+	}
+
+	/**
+	 * collect the optional name/value pairs that follow the required arguments on the command line
+	 * @param args holds the command line arguments
+	 * @param start is the index of the first optional argument
+	 * @return option name (without the leading dashes) mapped to its value
+	 */
+	private static Map<String, String> getOptions(String[] args, int start) {
+		Map<String, String> retVal = new HashMap<String, String>();
+		for (int i = start; i + 1 < args.length; i += 2) {
+			if (args[i].startsWith("--")) {
+				retVal.put(args[i].substring(2), args[i + 1]);
+			} else {
+				System.err.println("ignoring unexpected argument " + args[i]);
+			}
+		}
+		return retVal;
 	}
 	
 	/**
@@ -276,10 +627,25 @@ public class LoadStarDB {
 	 * @param args
 	 */
     public static void main(String[] args) {
-    	if (args.length == 7) {
+    	if (args.length >= 7 && args.length % 2 == 1) {
     		try {
-				LoadStarDB m = new LoadStarDB(args[0], args[1], args[3], args[4], args[5], args[6]);
+    			Map<String, String> options = getOptions(args, 7);
+				LoadStarDB m = new LoadStarDB(args[0], args[1], args[3], args[4], args[5], args[6], options.get("from"), options.get("to"));
+				Date[] range = new Date[2];
+				m.extendDateRange(args[2], range);
+				if (options.containsKey("spatial")) {
+					m.extendDateRange(options.get("spatial"), range);
+				}
+				if (range[0] != null) {
+					m.insertTimePeriods(range[0], range[1]);
+				}
 				m.processData(args[2]);
+				if (options.containsKey("spatial")) {
+					m.processSpatialData(options.get("spatial"));
+				}
+				if (options.containsKey("districts")) {
+					m.updateDistricts(options.get("districts"));
+				}
 			} catch (ClassNotFoundException e) {
 				e.printStackTrace();
 			} catch (SQLException e) {
@@ -290,7 +656,7 @@ public class LoadStarDB {
 				e.printStackTrace();
 			}
     	} else {
-    		System.err.println("\nusage: java -jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.olap.etl.LoadStarDB path/to/category/report path/to/district/report path/to/star/data dbhost dbname dbuser dbpassword\n");
+    		System.err.println("\nusage: java -jar sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.olap.etl.LoadStarDB path/to/category/report path/to/district/report path/to/star/data dbhost dbname dbuser dbpassword [--spatial path/to/heatmap/data] [--districts path/to/district/reference.csv] [--from yyyy/MM/dd] [--to yyyy/MM/dd]\n");
     	}
     }
 
@@ -328,6 +694,8 @@ public class LoadStarDB {
 					retVal.append(((Long)o).toString());
 				} else if (o instanceof Integer) {
 					retVal.append(((Integer)o).toString());
+				} else if (o instanceof BigDecimal) {
+					retVal.append(((BigDecimal)o).toPlainString());
 				} else if (o instanceof Date) {
 					Date d = (Date)o;
 					retVal.append("'");
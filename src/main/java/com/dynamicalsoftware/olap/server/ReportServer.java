@@ -0,0 +1,446 @@
+package com.dynamicalsoftware.olap.server;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.DecimalFormat;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.dynamicalsoftware.util.DataFile;
+import com.dynamicalsoftware.util.LatencyRecorder;
+import com.dynamicalsoftware.util.ResultCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * serves the weekly reports and slices of the data cube over http so that dashboards do not have to go back
+ * to the job output files, or to the star schema, on every page load
+ *
+ * results are cached in a least recently used cache keyed by the query and by a fingerprint of the files
+ * that answer it, so a new job output is picked up on the next request and the stale results simply age out
+ * @author glenn
+ */
+public class ReportServer {
+
+	private static Logger log = Logger.getLogger(ReportServer.class.getCanonicalName());
+
+	/**
+	 * how many bytes of results to cache when not specified on the command line
+	 */
+	private static final long DEFAULT_CACHE_BYTES = 64l * 1024l * 1024l;
+
+	/**
+	 * how many of the most recent request latencies the percentiles are computed from
+	 */
+	private static final int LATENCY_SAMPLES = 4096;
+
+	/**
+	 * how many requests are handled at once
+	 */
+	private static final int THREADS = 8;
+
+	/**
+	 * query parameter that lists the dimensions of a cube slice
+	 */
+	private static final String DIMENSIONS_PARAMETER = "dimensions";
+
+	/**
+	 * query parameter that picks one row of a report
+	 */
+	private static final String KEY_PARAMETER = "key";
+
+	/**
+	 * name of the cuboid with no dimensions, the grand total
+	 */
+	private static final String APEX = "all";
+
+	/**
+	 * path to the cube data, null when no cube is served
+	 */
+	private final String cube;
+
+	/**
+	 * query and fingerprint mapped to the response
+	 */
+	private final ResultCache<String, byte[]> cache;
+
+	/**
+	 * latencies of the report and cube requests
+	 */
+	private final LatencyRecorder latency = new LatencyRecorder(LATENCY_SAMPLES);
+
+	/**
+	 * @param cube is the path to the output of the SanFranciscoCrimeCube job or null
+	 * @param cacheBytes is the most bytes of results, and of the queries that key them, to cache
+	 */
+	private ReportServer(String cube, long cacheBytes) {
+		this.cube = cube;
+		// a whole report is far larger than a row of it so the cache is bounded by bytes rather than by entries
+		this.cache = new ResultCache<String, byte[]>(cacheBytes) {
+
+			@Override
+			protected long getSize(String key, byte[] value) {
+				return key.length() * 2l + value.length;
+			}
+
+		};
+	}
+
+	/**
+	 * @param files are the job output files that answer a query
+	 * @return the name, length and modification time of each file, which changes whenever a job rewrites its output
+	 */
+	private static String getFingerprint(List<String> files) {
+		StringBuffer retVal = new StringBuffer();
+		for (String fn : files) {
+			File f = new File(fn);
+			retVal.append(f.getName());
+			retVal.append(":");
+			retVal.append(f.length());
+			retVal.append(":");
+			retVal.append(f.lastModified());
+			retVal.append(";");
+		}
+		return retVal.toString();
+	}
+
+	/**
+	 * @param query is the raw query string of a request, may be null
+	 * @return parameter name mapped to its decoded value in name order, so that equivalent queries are cached together
+	 * @throws UnsupportedEncodingException
+	 */
+	private static Map<String, String> getParameters(String query) throws UnsupportedEncodingException {
+		Map<String, String> retVal = new TreeMap<String, String>();
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq > 0) {
+					retVal.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param exchange is the request to answer
+	 * @param status is the http status code
+	 * @param body is the response
+	 * @throws IOException
+	 */
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(body);
+		os.close();
+	}
+
+	/**
+	 * what a request resolves to, worked out once so that the files and the slice agree even when the job output
+	 * changes while the request is being answered
+	 * @author glenn
+	 */
+	static class Query {
+
+		/**
+		 * the job output files that answer the query
+		 */
+		final List<String> files;
+
+		/**
+		 * zero based column index mapped to the value that a line must have in that column to be in the response
+		 */
+		final Map<Integer, String> slice;
+
+		Query(List<String> files, Map<Integer, String> slice) {
+			this.files = files;
+			this.slice = slice;
+		}
+
+	}
+
+	/**
+	 * answers a query from the cache or from the job output files that it maps to, and times it
+	 * @author glenn
+	 */
+	abstract class CachedHandler implements HttpHandler {
+
+		/**
+		 * @param parameters are the query parameters
+		 * @return the files and slice that answer the query or null when nothing does
+		 */
+		protected abstract Query getQuery(Map<String, String> parameters);
+
+		/**
+		 * @param line is a line of a job output file
+		 * @param slice holds the values that the columns of the line must have
+		 * @return true when the line belongs in the response
+		 */
+		private boolean matches(String line, Map<Integer, String> slice) {
+			if (slice.isEmpty()) {
+				return true;
+			}
+			String[] columns = line.split("\t");
+			for (Map.Entry<Integer, String> column : slice.entrySet()) {
+				if (column.getKey() >= columns.length || !column.getValue().equals(columns[column.getKey()])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			long start = System.nanoTime();
+			try {
+				Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+				Query query = getQuery(parameters);
+				if (query == null) {
+					send(exchange, 404, MessageFormat.format("nothing matches {0}\n", new Object[]{exchange.getRequestURI()}).getBytes("UTF-8"));
+					return;
+				}
+				String key = exchange.getHttpContext().getPath() + "?" + parameters + "\n" + getFingerprint(query.files);
+				byte[] body = cache.get(key);
+				if (body == null) {
+					StringBuffer sb = new StringBuffer();
+					for (String part : query.files) {
+						BufferedReader br = new BufferedReader(new FileReader(part));
+						String line = br.readLine();
+						while (line != null) {
+							if (matches(line, query.slice)) {
+								sb.append(line);
+								sb.append("\n");
+							}
+							line = br.readLine();
+						}
+						br.close();
+					}
+					body = sb.toString().getBytes("UTF-8");
+					cache.put(key, body);
+				}
+				send(exchange, 200, body);
+			} catch (IllegalArgumentException e) {
+				// such as a malformed escape in the query string
+				send(exchange, 400, MessageFormat.format("bad request {0}: {1}\n", new Object[]{exchange.getRequestURI(), e.getMessage()}).getBytes("UTF-8"));
+			} catch (IOException e) {
+				log.log(Level.WARNING, MessageFormat.format("Cannot answer {0}", new Object[]{exchange.getRequestURI()}), e);
+				send(exchange, 500, "internal error\n".getBytes("UTF-8"));
+			} catch (RuntimeException e) {
+				log.log(Level.WARNING, MessageFormat.format("Cannot answer {0}", new Object[]{exchange.getRequestURI()}), e);
+				send(exchange, 500, "internal error\n".getBytes("UTF-8"));
+			} finally {
+				latency.record(System.nanoTime() - start);
+			}
+		}
+
+	}
+
+	/**
+	 * serves a weekly report, or one row of it when the key parameter is present
+	 * @author glenn
+	 */
+	class ReportHandler extends CachedHandler {
+
+		private final String report;
+
+		/**
+		 * @param report is the path to the output of the job that generated the report
+		 */
+		ReportHandler(String report) {
+			this.report = report;
+		}
+
+		@Override
+		protected Query getQuery(Map<String, String> parameters) {
+			if (!new File(report).exists()) {
+				return null;
+			}
+			Map<Integer, String> slice = new HashMap<Integer, String>();
+			if (parameters.containsKey(KEY_PARAMETER)) {
+				slice.put(0, parameters.get(KEY_PARAMETER));
+			}
+			return new Query(DataFile.getFiles(report), slice);
+		}
+
+	}
+
+	/**
+	 * serves the cuboid with the comma separated dimensions of the dimensions parameter, sliced by any other
+	 * parameter that names one of those dimensions, such as /cube?dimensions=category,district&district=MISSION
+	 * @author glenn
+	 */
+	class CubeHandler extends CachedHandler {
+
+		/**
+		 * @param parameters are the query parameters
+		 * @return the dimensions of the cuboid directory that holds the requested dimensions, in any order, or null when there is none
+		 */
+		private String[] getCuboid(Map<String, String> parameters) {
+			String requested = parameters.get(DIMENSIONS_PARAMETER);
+			Set<String> dimensions = new HashSet<String>();
+			if (requested != null && requested.length() > 0) {
+				dimensions.addAll(Arrays.asList(requested.split(",")));
+			}
+			File[] cuboids = new File(cube).listFiles();
+			if (cuboids != null) {
+				for (File cuboid : cuboids) {
+					if (cuboid.isDirectory()) {
+						String[] cd = cuboid.getName().split("-");
+						if (cuboid.getName().equals(APEX) ? dimensions.isEmpty() : dimensions.equals(new HashSet<String>(Arrays.asList(cd)))) {
+							return cuboid.getName().equals(APEX) ? new String[0] : cd;
+						}
+					}
+				}
+			}
+			return null;
+		}
+
+		@Override
+		protected Query getQuery(Map<String, String> parameters) {
+			String[] cuboid = getCuboid(parameters);
+			if (cuboid == null) {
+				return null;
+			}
+			StringBuffer name = new StringBuffer(APEX);
+			if (cuboid.length > 0) {
+				name.setLength(0);
+				for (String dimension : cuboid) {
+					if (name.length() > 0) {
+						name.append("-");
+					}
+					name.append(dimension);
+				}
+			}
+			Map<Integer, String> slice = new HashMap<Integer, String>();
+			for (int i = 0; i < cuboid.length; i++) {
+				if (parameters.containsKey(cuboid[i])) {
+					slice.put(i, parameters.get(cuboid[i]));
+				}
+			}
+			return new Query(DataFile.getFiles(new File(cube, name.toString()).getPath()), slice);
+		}
+
+	}
+
+	/**
+	 * reports how well the cache is doing and how long the report and cube requests take
+	 * @author glenn
+	 */
+	class StatsHandler implements HttpHandler {
+
+		public void handle(HttpExchange exchange) throws IOException {
+			// the handler is shared by the threads of the server and a DecimalFormat is not thread safe
+			DecimalFormat df = new DecimalFormat("0.000");
+			long[] p = latency.getPercentiles(50.0, 95.0, 99.0);
+			StringBuffer sb = new StringBuffer();
+			sb.append("requests\t").append(latency.getCount()).append("\n");
+			sb.append("hits\t").append(cache.getHits()).append("\n");
+			sb.append("misses\t").append(cache.getMisses()).append("\n");
+			sb.append("hit rate\t").append(df.format(cache.getHitRate())).append("\n");
+			sb.append("entries\t").append(cache.size()).append("\n");
+			sb.append("bytes\t").append(cache.getSize()).append("\n");
+			sb.append("evictions\t").append(cache.getEvictions()).append("\n");
+			sb.append("p50 ms\t").append(df.format(p[0] / 1000000.0)).append("\n");
+			sb.append("p95 ms\t").append(df.format(p[1] / 1000000.0)).append("\n");
+			sb.append("p99 ms\t").append(df.format(p[2] / 1000000.0)).append("\n");
+			send(exchange, 200, sb.toString().getBytes("UTF-8"));
+		}
+
+	}
+
+	/**
+	 * @param port is the port to listen on
+	 * @param reports maps the name of each report to the path of its job output
+	 * @throws IOException
+	 */
+	private void start(int port, Map<String, String> reports) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		for (Map.Entry<String, String> report : reports.entrySet()) {
+			server.createContext("/report/".concat(report.getKey()), new ReportHandler(report.getValue()));
+		}
+		if (cube != null) {
+			server.createContext("/cube", new CubeHandler());
+		}
+		server.createContext("/stats", new StatsHandler());
+		server.setExecutor(Executors.newFixedThreadPool(THREADS));
+		server.start();
+		log.info(MessageFormat.format("serving {0} on port {1,number,#}", new Object[]{reports.keySet(), port}));
+	}
+
+	/**
+	 * collect the optional name/value pairs that follow the required arguments on the command line
+	 * @param args holds the command line arguments
+	 * @param start is the index of the first optional argument
+	 * @return option name (without the leading dashes) mapped to its value
+	 */
+	private static Map<String, String> getOptions(String[] args, int start) {
+		Map<String, String> retVal = new HashMap<String, String>();
+		for (int i = start; i + 1 < args.length; i += 2) {
+			if (args[i].startsWith("--")) {
+				retVal.put(args[i].substring(2), args[i + 1]);
+			} else {
+				System.err.println("ignoring unexpected argument " + args[i]);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * CLI for running the server
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length >= 3 && args.length % 2 == 1) {
+			try {
+				Map<String, String> options = getOptions(args, 3);
+				Map<String, String> reports = new TreeMap<String, String>();
+				reports.put("category", args[1]);
+				reports.put("district", args[2]);
+				if (options.containsKey("rates")) {
+					reports.put("rates", options.get("rates"));
+				}
+				long bytes = options.containsKey("cache") ? Long.parseLong(options.get("cache")) : DEFAULT_CACHE_BYTES;
+				new ReportServer(options.get("cube"), bytes).start(Integer.parseInt(args[0]), reports);
+			} catch (NumberFormatException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} else {
+			System.err.println("\nusage: java -cp sfcrime.hadoop.mapreduce.jobs-0.0.1-SNAPSHOT.jar com.dynamicalsoftware.olap.server.ReportServer port path/to/category/report path/to/district/report [--rates path/to/district/rates] [--cube path/to/cube/data] [--cache bytes]\n");
+		}
+	}
+
+}
@@ -18,6 +18,7 @@ limitations under the License.
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -34,24 +35,100 @@ import au.com.bytecode.opencsv.CSVReader;
  */
 public abstract class DataFile {
 
+	/**
+	 * prefix of the directories that hold one year of a time partitioned job output
+	 */
+	public static final String YEAR_PARTITION = "year=";
+
+	/**
+	 * prefix of the directories, within a year, that hold one month of a time partitioned job output
+	 */
+	public static final String MONTH_PARTITION = "month=";
+
+	/**
+	 * @param key is a date formatted as yyyy/MM/dd like the keys of the map/reduce job output files
+	 * @return the relative path of the partition directory, year=yyyy/month=MM, that holds the key
+	 */
+	public static String getPartition(String key) {
+		return YEAR_PARTITION + key.substring(0, 4) + "/" + MONTH_PARTITION + key.substring(5, 7);
+	}
+
+	/**
+	 * list the files that hold the output of a hadoop map/reduce job, which is spread over
+	 * one part file per reducer when the job ran with more than one
+	 * @param fn holds the fully qualified path to either a single part file or the output directory
+	 * @return the part files in name order
+	 */
+    public static List<String> getFiles(String fn) {
+    	return getFiles(fn, null, null);
+    }
+
+	/**
+	 * list the files that hold the output of a hadoop map/reduce job, including those in the year=yyyy/month=MM
+	 * directories of a time partitioned output, skipping the months that are entirely outside of a date range
+	 * @param fn holds the fully qualified path to either a single part file or the output directory
+	 * @param from is the first date, as yyyy/MM/dd, of the range or null to start with the earliest partition
+	 * @param to is the last date, as yyyy/MM/dd, of the range or null to end with the latest partition
+	 * @return the part files in name order, which is also date order for a time partitioned output
+	 */
+    public static List<String> getFiles(String fn, String from, String to) {
+    	List<String> retVal = new ArrayList<String>();
+    	File f = new File(fn);
+    	if (f.isDirectory()) {
+    		addParts(f, retVal);
+    		for (File year : f.listFiles()) {
+    			if (year.isDirectory() && year.getName().startsWith(YEAR_PARTITION)) {
+    				for (File month : year.listFiles()) {
+    					if (month.isDirectory() && month.getName().startsWith(MONTH_PARTITION)) {
+    						String partition = year.getName().substring(YEAR_PARTITION.length()) + "/" + month.getName().substring(MONTH_PARTITION.length());
+    						// compare only the yyyy/MM of the range since a partition holds a whole month
+    						if ((from == null || partition.compareTo(from.substring(0, 7)) >= 0) && (to == null || partition.compareTo(to.substring(0, 7)) <= 0)) {
+    							addParts(month, retVal);
+    						}
+    					}
+    				}
+    			}
+    		}
+    		Collections.sort(retVal);
+    	} else {
+    		retVal.add(fn);
+    	}
+    	return retVal;
+    }
+
+    /**
+     * @param dir is a directory of job output
+     * @param parts receives the part files in the directory
+     */
+    private static void addParts(File dir, List<String> parts) {
+		for (File part : dir.listFiles()) {
+			// skip _SUCCESS, _logs, _manifest and the .crc files
+			if (part.isFile() && !part.getName().startsWith("_") && !part.getName().startsWith(".")) {
+				parts.add(part.getPath());
+			}
+		}
+    }
+
 	/**
 	 * extract the keys from the output of a hadoop map/reduce job
-	 * @param fn holds the fully qualified path and file
+	 * @param fn holds the fully qualified path to either a single part file or the output directory
 	 * @return a list of keys
 	 * @throws IOException
 	 */
     public static List<String> extractKeys(String fn) throws IOException {
     	List<String> retVal = new ArrayList<String>();
-    	BufferedReader br = new BufferedReader(new FileReader(fn));
-    	String line = br.readLine();
-    	while  (line != null) {
-    		String[] lp = line.split("\t");
-    		if (lp.length > 0) {
-    			retVal.add(lp[0]);
-    		}
-    		line = br.readLine();
+    	for (String part : getFiles(fn)) {
+	    	BufferedReader br = new BufferedReader(new FileReader(part));
+	    	String line = br.readLine();
+	    	while  (line != null) {
+	    		String[] lp = line.split("\t");
+	    		if (lp.length > 0) {
+	    			retVal.add(lp[0]);
+	    		}
+	    		line = br.readLine();
+	    	}
+	    	br.close();
     	}
-    	br.close();
     	Collections.sort(retVal);
     	return retVal;
     }
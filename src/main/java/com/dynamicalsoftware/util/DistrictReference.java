@@ -0,0 +1,88 @@
+package com.dynamicalsoftware.util;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * reference data about a police district, read from a csv file of district,population,area in square kilometers,station
+ * @author glenn
+ */
+public class DistrictReference {
+
+	private final String name;
+
+	private final long population;
+
+	private final double area;
+
+	private final String station;
+
+	public DistrictReference(String name, long population, double area, String station) {
+		this.name = name;
+		this.population = population;
+		this.area = area;
+		this.station = station;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getPopulation() {
+		return population;
+	}
+
+	/**
+	 * @return the area of the district in square kilometers
+	 */
+	public double getArea() {
+		return area;
+	}
+
+	public String getStation() {
+		return station;
+	}
+
+	/**
+	 * read a district reference file, a header row and malformed rows are skipped
+	 * @param br reads the csv file
+	 * @return upper cased district name, as it appears in the crime data, mapped to its reference data
+	 * @throws IOException
+	 */
+	public static Map<String, DistrictReference> read(BufferedReader br) throws IOException {
+		Map<String, DistrictReference> retVal = new HashMap<String, DistrictReference>();
+		String line = br.readLine();
+		while (line != null) {
+			String[] col = DataFile.getColumns(line);
+			if (col != null && col.length >= 4) {
+				try {
+					String name = col[0].trim().toUpperCase();
+					retVal.put(name, new DistrictReference(name, Long.parseLong(col[1].trim()), Double.parseDouble(col[2].trim()), col[3].trim()));
+				} catch (NumberFormatException nfe) {
+					// most likely the header
+				}
+			}
+			line = br.readLine();
+		}
+		return retVal;
+	}
+
+}
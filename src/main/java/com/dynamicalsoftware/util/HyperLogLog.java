@@ -0,0 +1,305 @@
+package com.dynamicalsoftware.util;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * mergeable sketch that estimates the number of distinct values offered to it
+ * in a fixed amount of memory (2^precision bytes)
+ *
+ * a sketch starts out sparse, holding only the registers that are set, and turns dense once a quarter of them
+ * are, so that the many sketches of small sets stay about as small as the sets themselves. Both forms hold
+ * the same registers and so give the same estimate.
+ * @author glenn
+ */
+public class HyperLogLog implements Writable {
+
+	/**
+	 * precision used when none is specified, 4096 registers or roughly 1.6% standard error
+	 */
+	public static final int DEFAULT_PRECISION = 12;
+
+	/**
+	 * number of leading hash bits used to select a register
+	 */
+	private int precision = DEFAULT_PRECISION;
+
+	/**
+	 * the highest observed rank for each register, null while the sketch is sparse
+	 */
+	private byte[] registers = null;
+
+	/**
+	 * while the sketch is sparse, each register that is set as its index shifted left by RANK_BITS plus its rank, in index order
+	 */
+	private int[] sparse = new int[4];
+
+	/**
+	 * number of registers held in sparse
+	 */
+	private int sparseSize = 0;
+
+	/**
+	 * ranks are at most 61 so they fit below the index in a sparse entry
+	 */
+	private static final int RANK_BITS = 6;
+
+	private static final int RANK_MASK = (1 << RANK_BITS) - 1;
+
+	/**
+	 * needed by hadoop in order to deserialize a sketch
+	 */
+	public HyperLogLog() {
+		this(DEFAULT_PRECISION);
+	}
+
+	/**
+	 * @param precision is the number of hash bits used to select a register (4 to 16)
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 16) {
+			throw new IllegalArgumentException("precision must be between 4 and 16");
+		}
+		this.precision = precision;
+	}
+
+	/**
+	 * @return the number of hash bits used to select a register
+	 */
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @return true while only the registers that are set are held
+	 */
+	public boolean isSparse() {
+		return registers == null;
+	}
+
+	/**
+	 * @return roughly how many bytes of memory the sketch takes up
+	 */
+	public int getSize() {
+		return registers == null ? 16 + sparse.length * 4 : 16 + registers.length;
+	}
+
+	/**
+	 * raise a register to the given rank unless it is already at least that high
+	 * @param index is the register
+	 * @param rank is the observed rank
+	 */
+	private void update(int index, int rank) {
+		if (registers != null) {
+			if (rank > registers[index]) {
+				registers[index] = (byte)rank;
+			}
+			return;
+		}
+		// entries sort by index since the index is in the high bits
+		int i = Arrays.binarySearch(sparse, 0, sparseSize, index << RANK_BITS);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		if (i < sparseSize && sparse[i] >>> RANK_BITS == index) {
+			if (rank > (sparse[i] & RANK_MASK)) {
+				sparse[i] = index << RANK_BITS | rank;
+			}
+			return;
+		}
+		if (sparseSize >= (1 << precision) / 4) {
+			toDense();
+			registers[index] = (byte)rank;
+			return;
+		}
+		if (sparseSize == sparse.length) {
+			sparse = Arrays.copyOf(sparse, sparse.length * 2);
+		}
+		System.arraycopy(sparse, i, sparse, i + 1, sparseSize - i);
+		sparse[i] = index << RANK_BITS | rank;
+		sparseSize++;
+	}
+
+	/**
+	 * switch to holding every register
+	 */
+	private void toDense() {
+		if (registers == null) {
+			registers = new byte[1 << precision];
+			for (int i = 0; i < sparseSize; i++) {
+				registers[sparse[i] >>> RANK_BITS] = (byte)(sparse[i] & RANK_MASK);
+			}
+			sparse = null;
+			sparseSize = 0;
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a hash followed by the murmur3 finalizer to spread the bits, also handy as a record fingerprint
+	 * @param value is what to hash
+	 * @return the hashed value
+	 */
+	public static long hash(String value) {
+		long h = 0xcbf29ce484222325l;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3l;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdl;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53l;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * record a value in the sketch
+	 * @param value is the value to be counted
+	 */
+	public void offer(String value) {
+		long h = hash(value);
+		int index = (int)(h >>> (64 - precision));
+		long remainder = h << precision;
+		int rank = remainder == 0l ? 64 - precision + 1 : Long.numberOfLeadingZeros(remainder) + 1;
+		update(index, rank);
+	}
+
+	/**
+	 * fold another sketch into this one so that this sketch counts the union of both
+	 * @param other is the sketch to be merged in, must have the same precision
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != precision) {
+			throw new IllegalArgumentException("cannot merge sketches of different precision");
+		}
+		if (other.registers == null) {
+			for (int i = 0; i < other.sparseSize; i++) {
+				update(other.sparse[i] >>> RANK_BITS, other.sparse[i] & RANK_MASK);
+			}
+			return;
+		}
+		toDense();
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the estimated number of distinct values offered to this sketch
+	 */
+	public long cardinality() {
+		int m = 1 << precision;
+		double sum = 0.0d;
+		int zeros = 0;
+		if (registers == null) {
+			// every register that is not held is zero
+			zeros = m - sparseSize;
+			sum = zeros;
+			for (int i = 0; i < sparseSize; i++) {
+				sum += 1.0d / (1l << (sparse[i] & RANK_MASK));
+			}
+		} else {
+			for (int i = 0; i < m; i++) {
+				sum += 1.0d / (1l << registers[i]);
+				if (registers[i] == 0) {
+					zeros++;
+				}
+			}
+		}
+		double alpha;
+		switch (m) {
+		case 16:
+			alpha = 0.673d;
+			break;
+		case 32:
+			alpha = 0.697d;
+			break;
+		case 64:
+			alpha = 0.709d;
+			break;
+		default:
+			alpha = 0.7213d / (1.0d + 1.079d / m);
+		}
+		double estimate = alpha * m * m / sum;
+		// linear counting is more accurate while many registers are still empty
+		if (estimate <= 2.5d * m && zeros > 0) {
+			estimate = m * Math.log((double)m / zeros);
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * a sparse sketch is written as the number of registers set followed by the gap to the index of each and its rank,
+	 * about three bytes per register, a dense one as a count of -1 followed by every register
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(precision);
+		if (registers == null) {
+			WritableUtils.writeVInt(out, sparseSize);
+			int last = 0;
+			for (int i = 0; i < sparseSize; i++) {
+				int index = sparse[i] >>> RANK_BITS;
+				WritableUtils.writeVInt(out, index - last);
+				out.writeByte(sparse[i] & RANK_MASK);
+				last = index;
+			}
+		} else {
+			WritableUtils.writeVInt(out, -1);
+			out.write(registers);
+		}
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		precision = in.readByte();
+		int size = WritableUtils.readVInt(in);
+		if (size < 0) {
+			if (registers == null || registers.length != (1 << precision)) {
+				registers = new byte[1 << precision];
+			}
+			sparse = null;
+			sparseSize = 0;
+			in.readFully(registers);
+		} else {
+			registers = null;
+			if (sparse == null || sparse.length < size) {
+				sparse = new int[Math.max(4, size)];
+			}
+			sparseSize = size;
+			int index = 0;
+			for (int i = 0; i < size; i++) {
+				index += WritableUtils.readVInt(in);
+				sparse[i] = index << RANK_BITS | in.readByte();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(cardinality());
+	}
+
+}
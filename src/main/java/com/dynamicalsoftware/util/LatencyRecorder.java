@@ -0,0 +1,76 @@
+package com.dynamicalsoftware.util;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.util.Arrays;
+
+/**
+ * keeps the most recent latencies in a ring so that percentiles reflect current behavior in constant memory,
+ * safe to share between threads
+ * @author glenn
+ */
+public class LatencyRecorder {
+
+	/**
+	 * the most recent latencies in nanoseconds
+	 */
+	private final long[] samples;
+
+	/**
+	 * how many latencies have ever been recorded
+	 */
+	private long count = 0l;
+
+	/**
+	 * @param size is how many of the most recent latencies to keep
+	 */
+	public LatencyRecorder(int size) {
+		samples = new long[size];
+	}
+
+	/**
+	 * @param nanos is the latency of a request in nanoseconds
+	 */
+	public synchronized void record(long nanos) {
+		samples[(int)(count % samples.length)] = nanos;
+		count++;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * nearest rank percentiles of the latencies in the ring
+	 * @param percentiles are each between 0 and 100
+	 * @return the latency in nanoseconds at each percentile, all zero when nothing has been recorded
+	 */
+	public synchronized long[] getPercentiles(double... percentiles) {
+		long[] retVal = new long[percentiles.length];
+		int n = (int)Math.min(count, samples.length);
+		if (n > 0) {
+			long[] sorted = Arrays.copyOf(samples, n);
+			Arrays.sort(sorted);
+			for (int i = 0; i < percentiles.length; i++) {
+				int rank = (int)Math.ceil(percentiles[i] / 100.0 * n);
+				retVal[i] = sorted[Math.min(n, Math.max(1, rank)) - 1];
+			}
+		}
+		return retVal;
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.dynamicalsoftware.util;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * row count and crc32 checksum of every part file in one partition of a time partitioned job output,
+ * kept in a file named _manifest in the partition directory, one part file per line as name, rows and checksum
+ * separated by tabs
+ * @author glenn
+ */
+public class PartitionManifest {
+
+	/**
+	 * name of the manifest file in each partition directory
+	 */
+	public static final String MANIFEST = "_manifest";
+
+	/**
+	 * part file name mapped to its row count and checksum
+	 */
+	private final Map<String, long[]> parts = new TreeMap<String, long[]>();
+
+	/**
+	 * @param part is the name of the part file
+	 * @param rows is the number of lines in the part file
+	 * @param checksum is the crc32 of every byte of the part file
+	 */
+	public void add(String part, long rows, long checksum) {
+		parts.put(part, new long[]{rows, checksum});
+	}
+
+	/**
+	 * @return part file name mapped to its row count and checksum
+	 */
+	public Map<String, long[]> getParts() {
+		return parts;
+	}
+
+	/**
+	 * @return total rows of all the part files in the partition
+	 */
+	public long getRows() {
+		long retVal = 0l;
+		for (long[] part : parts.values()) {
+			retVal += part[0];
+		}
+		return retVal;
+	}
+
+	/**
+	 * add every entry of a manifest, lines that are not in the expected format are skipped
+	 * @param br reads the manifest
+	 * @throws IOException
+	 */
+	public void read(BufferedReader br) throws IOException {
+		String line = br.readLine();
+		while (line != null) {
+			String[] lp = line.split("\t");
+			if (lp.length == 3) {
+				try {
+					add(lp[0], Long.parseLong(lp[1]), Long.parseLong(lp[2]));
+				} catch (NumberFormatException nfe) {
+					System.err.println("invalid manifest entry: " + line);
+				}
+			}
+			line = br.readLine();
+		}
+	}
+
+	/**
+	 * @param pw receives the manifest in part file name order
+	 */
+	public void write(PrintWriter pw) {
+		for (Map.Entry<String, long[]> part : parts.entrySet()) {
+			pw.print(part.getKey());
+			pw.print("\t");
+			pw.print(part.getValue()[0]);
+			pw.print("\t");
+			pw.println(part.getValue()[1]);
+		}
+	}
+
+	/**
+	 * recount and checksum a part file then compare it to what the manifest says it should be
+	 * @param part is the part file to verify
+	 * @return true when the part file is in the manifest with the same row count and checksum
+	 * @throws IOException
+	 */
+	public boolean verify(File part) throws IOException {
+		long[] expected = parts.get(part.getName());
+		if (expected == null) {
+			return false;
+		}
+		CRC32 crc = new CRC32();
+		long rows = 0l;
+		byte[] buffer = new byte[64 * 1024];
+		InputStream is = new BufferedInputStream(new FileInputStream(part));
+		int n = is.read(buffer);
+		while (n >= 0) {
+			crc.update(buffer, 0, n);
+			for (int i = 0; i < n; i++) {
+				if (buffer[i] == '\n') {
+					rows++;
+				}
+			}
+			n = is.read(buffer);
+		}
+		is.close();
+		return rows == expected[0] && crc.getValue() == expected[1];
+	}
+
+}
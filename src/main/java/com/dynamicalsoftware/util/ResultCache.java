@@ -0,0 +1,136 @@
+package com.dynamicalsoftware.util;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * least recently used cache of query results that holds at most a fixed total size of entries and
+ * counts its hits, misses and evictions, safe to share between threads
+ *
+ * the size of an entry is one unless a subclass overrides getSize, so by default the capacity is a number of entries
+ * @author glenn
+ */
+public class ResultCache<K, V> {
+
+	/**
+	 * access order makes every get move the entry to the most recently used end
+	 */
+	private final LinkedHashMap<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+	/**
+	 * the most total size to hold before the least recently used entries are evicted
+	 */
+	private final long capacity;
+
+	/**
+	 * total size of the entries held
+	 */
+	private long size = 0l;
+
+	private long hits = 0l;
+
+	private long misses = 0l;
+
+	private long evictions = 0l;
+
+	/**
+	 * @param capacity is the most total size to hold before the least recently used entries are evicted
+	 */
+	public ResultCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param key identifies the result
+	 * @param value is the result
+	 * @return how much of the capacity the entry takes up
+	 */
+	protected long getSize(K key, V value) {
+		return 1l;
+	}
+
+	/**
+	 * @param key identifies the result
+	 * @return the cached result or null, which counts as a miss, when there is none
+	 */
+	public synchronized V get(K key) {
+		V retVal = entries.get(key);
+		if (retVal == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param key identifies the result
+	 * @param value is the result to be cached, unless it is larger than the whole cache
+	 */
+	public synchronized void put(K key, V value) {
+		long added = getSize(key, value);
+		if (added > capacity) {
+			return;
+		}
+		V replaced = entries.put(key, value);
+		if (replaced != null) {
+			size -= getSize(key, replaced);
+		}
+		size += added;
+		Iterator<Map.Entry<K, V>> eldest = entries.entrySet().iterator();
+		while (size > capacity && eldest.hasNext()) {
+			Map.Entry<K, V> entry = eldest.next();
+			size -= getSize(entry.getKey(), entry.getValue());
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return total size of the entries held
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the fraction of the look ups that were hits, zero before the first look up
+	 */
+	public synchronized double getHitRate() {
+		return hits + misses > 0l ? (double)hits / (hits + misses) : 0.0;
+	}
+
+}
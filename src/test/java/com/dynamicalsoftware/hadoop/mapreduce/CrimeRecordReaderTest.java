@@ -0,0 +1,105 @@
+package com.dynamicalsoftware.hadoop.mapreduce;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * splits a small csv, with quoted fields that span lines, at every offset and checks that the two readers
+ * together return exactly the records of the whole file
+ * @author glenn
+ */
+public class CrimeRecordReaderTest extends TestCase {
+
+	private static final String SAMPLE =
+		"IncidntNum,Category,Descript,DayOfWeek,Date,Time,PdDistrict,Resolution,Location,X,Y\n" +
+		"130000001,ASSAULT,PETTY THEFT,Sunday,01/13/2013 00:00:00,00:01,MISSION,NONE,\"666 MARKET ST\",-122.418788,37.803306\n" +
+		"130000002,\"SEX OFFENSES, FORCIBLE\",\"GRAND THEFT, FROM\nVEHICLE\",Tuesday,01/08/2013 00:00:00,19:50,CENTRAL,NONE,\"340 MARKET ST\",-122.431278,37.703077\n" +
+		// the description holds a line that parses as a record on its own
+		"130000003,VANDALISM,\"SEE ALSO\n130009,ASSAULT,NOTE,Monday,01/07/2013 00:00:00,10:00,MISSION,NONE,X,-122.4,37.7\nEND\",Monday,01/07/2013 00:00:00,10:05,SOUTHERN,NONE,\"1 MARKET ST\",-122.41,37.78\n" +
+		"130000004,BURGLARY,PETTY THEFT,Wednesday,01/30/2013 00:00:00,17:51,TENDERLOIN,NONE,\"34 MARKET ST\",-122.373738,37.774042\r\n" +
+		"130000005,\"LARCENY/THEFT\",\"SAID \"\"HI\"\"\nTHEN LEFT\",Friday,01/11/2013 00:00:00,08:15,TENDERLOIN,NONE,\"113 MARKET ST\",-122.380407,37.720307\n" +
+		"130000006,OTHER OFFENSES,PETTY THEFT,Friday,01/11/2013 00:00:00,05:16,CENTRAL,NONE,\"975 MARKET ST\",-122.474778,37.730021\n";
+
+	private JobConf job;
+
+	private Path path;
+
+	private long length;
+
+	@Override
+	protected void setUp() throws Exception {
+		File file = File.createTempFile("crimes", ".csv");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		byte[] bytes = SAMPLE.getBytes("UTF-8");
+		out.write(bytes);
+		out.close();
+		length = bytes.length;
+		job = new JobConf();
+		job.set(CrimeInputFormat.COLUMNS_PROPERTY, CrimeInputFormat.ALL_COLUMNS);
+		path = new Path(file.toURI().toString());
+	}
+
+	/**
+	 * @param start is the offset of the split
+	 * @param end is the offset just past the split
+	 * @param records receives the incident number, category and description of each record read
+	 * @throws IOException
+	 */
+	private void read(long start, long end, List<String> records) throws IOException {
+		CrimeRecordReader reader = new CrimeRecordReader(job, new FileSplit(path, start, end - start, (String[])null), Reporter.NULL);
+		LongWritable key = reader.createKey();
+		CrimeRecord value = reader.createValue();
+		while (reader.next(key, value)) {
+			records.add(value.get(0) + "|" + value.get(1) + "|" + value.get(2));
+		}
+		reader.close();
+	}
+
+	public void testWholeFile() throws IOException {
+		List<String> records = new ArrayList<String>();
+		read(0l, length, records);
+		assertEquals(6, records.size());
+		assertEquals("130000003|VANDALISM|SEE ALSO\n130009,ASSAULT,NOTE,Monday,01/07/2013 00:00:00,10:00,MISSION,NONE,X,-122.4,37.7\nEND", records.get(2));
+		assertEquals("130000005|LARCENY/THEFT|SAID \"HI\"\nTHEN LEFT", records.get(4));
+	}
+
+	public void testEverySplitPoint() throws IOException {
+		List<String> whole = new ArrayList<String>();
+		read(0l, length, whole);
+		for (long cut = 1l; cut < length; cut++) {
+			List<String> split = new ArrayList<String>();
+			read(0l, cut, split);
+			read(cut, length, split);
+			assertEquals("split at " + cut, whole, split);
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.dynamicalsoftware.util;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * checks that the sparse form of the sketch stays small and agrees with the dense form
+ * @author glenn
+ */
+public class HyperLogLogTest extends TestCase {
+
+	private static byte[] serialize(HyperLogLog sketch) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		sketch.write(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static HyperLogLog deserialize(byte[] bytes) throws IOException {
+		HyperLogLog retVal = new HyperLogLog();
+		retVal.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+		return retVal;
+	}
+
+	public void testSmallSetsStaySmall() throws IOException {
+		HyperLogLog sketch = new HyperLogLog();
+		for (int i = 0; i < 100; i++) {
+			sketch.offer(Integer.toString(130000000 + i));
+		}
+		assertTrue(sketch.isSparse());
+		byte[] bytes = serialize(sketch);
+		assertTrue(bytes.length + " bytes", bytes.length < 400);
+		HyperLogLog copy = deserialize(bytes);
+		assertTrue(copy.isSparse());
+		assertEquals(sketch.cardinality(), copy.cardinality());
+		assertEquals(100.0, copy.cardinality(), 5.0);
+	}
+
+	public void testSparseAgreesWithDense() throws IOException {
+		HyperLogLog small = new HyperLogLog();
+		HyperLogLog large = new HyperLogLog();
+		for (int i = 0; i < 200; i++) {
+			small.offer(Integer.toString(i));
+		}
+		for (int i = 100; i < 20000; i++) {
+			large.offer(Integer.toString(i));
+		}
+		assertTrue(small.isSparse());
+		assertFalse(large.isSparse());
+		HyperLogLog union = new HyperLogLog();
+		union.merge(small);
+		union.merge(large);
+		HyperLogLog expected = new HyperLogLog();
+		for (int i = 0; i < 20000; i++) {
+			expected.offer(Integer.toString(i));
+		}
+		assertEquals(expected.cardinality(), union.cardinality());
+		assertEquals(expected.cardinality(), deserialize(serialize(union)).cardinality());
+		assertEquals(20000.0, union.cardinality(), 20000 * 0.05);
+	}
+
+}
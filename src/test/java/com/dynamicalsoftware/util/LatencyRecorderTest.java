@@ -0,0 +1,75 @@
+package com.dynamicalsoftware.util;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import junit.framework.TestCase;
+
+/**
+ * checks the nearest rank percentiles before and after the ring of latencies wraps around
+ * @author glenn
+ */
+public class LatencyRecorderTest extends TestCase {
+
+	public void testNothingRecorded() {
+		LatencyRecorder latency = new LatencyRecorder(4);
+		long[] p = latency.getPercentiles(50.0, 99.0);
+		assertEquals(0l, p[0]);
+		assertEquals(0l, p[1]);
+	}
+
+	public void testSingleLatency() {
+		LatencyRecorder latency = new LatencyRecorder(4);
+		latency.record(7l);
+		long[] p = latency.getPercentiles(0.0, 50.0, 95.0, 100.0);
+		for (long v : p) {
+			assertEquals(7l, v);
+		}
+		assertEquals(1l, latency.getCount());
+	}
+
+	public void testNearestRank() {
+		LatencyRecorder latency = new LatencyRecorder(100);
+		// recorded out of order, 1 through 10
+		for (long v : new long[]{5l, 3l, 9l, 1l, 10l, 2l, 8l, 4l, 7l, 6l}) {
+			latency.record(v);
+		}
+		long[] p = latency.getPercentiles(10.0, 50.0, 55.0, 90.0, 91.0, 100.0);
+		// rank is the ceiling of p/100 * n
+		assertEquals(1l, p[0]);
+		assertEquals(5l, p[1]);
+		assertEquals(6l, p[2]);
+		assertEquals(9l, p[3]);
+		assertEquals(10l, p[4]);
+		assertEquals(10l, p[5]);
+	}
+
+	public void testOnlyTheMostRecentAfterWrapping() {
+		LatencyRecorder latency = new LatencyRecorder(4);
+		for (long v = 1l; v <= 10l; v++) {
+			latency.record(v * 100l);
+		}
+		assertEquals(10l, latency.getCount());
+		// the ring holds 700, 800, 900 and 1000
+		long[] p = latency.getPercentiles(0.0, 25.0, 50.0, 75.0, 100.0);
+		assertEquals(700l, p[0]);
+		assertEquals(700l, p[1]);
+		assertEquals(800l, p[2]);
+		assertEquals(900l, p[3]);
+		assertEquals(1000l, p[4]);
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.dynamicalsoftware.util;
+
+/*
+Copyright 2013 Dynamical Software, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+import junit.framework.TestCase;
+
+/**
+ * checks that the cache evicts by total size in least recently used order and accounts for replaced entries
+ * @author glenn
+ */
+public class ResultCacheTest extends TestCase {
+
+	/**
+	 * @param capacity is the most bytes to hold
+	 * @return a cache sized by the bytes of its values, as the report server sizes its results
+	 */
+	private static ResultCache<String, byte[]> newCache(long capacity) {
+		return new ResultCache<String, byte[]>(capacity) {
+
+			@Override
+			protected long getSize(String key, byte[] value) {
+				return value.length;
+			}
+
+		};
+	}
+
+	public void testEvictsLeastRecentlyUsedBySize() {
+		ResultCache<String, byte[]> cache = newCache(100l);
+		cache.put("a", new byte[40]);
+		cache.put("b", new byte[40]);
+		// a is now the most recently used so b goes first
+		assertNotNull(cache.get("a"));
+		cache.put("c", new byte[40]);
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+		assertEquals(80l, cache.getSize());
+		assertEquals(1l, cache.getEvictions());
+		// one large entry pushes out as many as it takes
+		cache.put("d", new byte[90]);
+		assertEquals(1, cache.size());
+		assertEquals(90l, cache.getSize());
+		assertEquals(3l, cache.getEvictions());
+	}
+
+	public void testSkipsEntriesLargerThanTheCache() {
+		ResultCache<String, byte[]> cache = newCache(100l);
+		cache.put("a", new byte[40]);
+		cache.put("b", new byte[101]);
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertEquals(40l, cache.getSize());
+		assertEquals(0l, cache.getEvictions());
+	}
+
+	public void testReplacingAKeyReplacesItsSize() {
+		ResultCache<String, byte[]> cache = newCache(100l);
+		cache.put("a", new byte[40]);
+		cache.put("b", new byte[30]);
+		cache.put("a", new byte[60]);
+		assertEquals(2, cache.size());
+		assertEquals(90l, cache.getSize());
+		assertEquals(60, cache.get("a").length);
+		assertEquals(0l, cache.getEvictions());
+		cache.put("a", new byte[10]);
+		assertEquals(40l, cache.getSize());
+	}
+
+	public void testCountsHitsAndMisses() {
+		ResultCache<String, byte[]> cache = newCache(100l);
+		assertEquals(0.0, cache.getHitRate(), 0.0);
+		cache.put("a", new byte[1]);
+		cache.get("a");
+		cache.get("a");
+		cache.get("b");
+		assertEquals(2l, cache.getHits());
+		assertEquals(1l, cache.getMisses());
+		assertEquals(2.0 / 3.0, cache.getHitRate(), 1e-9);
+	}
+
+}